@@ -0,0 +1,144 @@
+package DynamoDB_ETL.benchmark;
+
+import DynamoDB_ETL.util.FIXM_Dep_DataConverter;
+import DynamoDB_ETL.util.FIXM_Fpl_DataConverter;
+import DynamoDB_ETL.util.IWXXM_DataConverter;
+import DynamoDB_ETL.util.METReport_DataConverter;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Converter benchmarks over the messages in src/jmh/resources/corpus.
+// *ToJson measures the converter alone, *ToItem the full conversion into the DynamoDB item the loaders write.
+// Build with "mvn -Pjmh package" and run "java -jar target/benchmarks.jar -prof gc" for allocation rates.
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DataConverter_Benchmark {
+
+    private static final String LOG_TIMESTAMP = "2024-10-18T15:41:00.000Z";
+
+    private String fixmDepXml;
+    private String fixmFplXml;
+    private String iwxxmMessage;
+    private String iwxxmId;
+    private String iwxxmBase64;
+    private String metReportId;
+    private String metReportData;
+
+    @Setup
+    public void loadCorpus() throws IOException {
+        fixmDepXml = readCorpus("fixm-dep.xml");
+        fixmFplXml = readCorpus("fixm-fpl.xml");
+        iwxxmMessage = readCorpus("iwxxm-metar.json");
+
+        // The MET and IWXXM loaders read id and content out of the message envelope before converting
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode iwxxm = objectMapper.readTree(iwxxmMessage);
+        iwxxmId = iwxxm.path("id").asText();
+        iwxxmBase64 = iwxxm.path("properties").path("content").path("value").textValue();
+        JsonNode metReport = objectMapper.readTree(readCorpus("met-report-0.json"));
+        metReportId = metReport.path("id").asText();
+        metReportData = metReport.path("properties").path("content").path("value").asText();
+    }
+
+    private static String readCorpus(String name) throws IOException {
+        try (InputStream in = DataConverter_Benchmark.class.getResourceAsStream("/corpus/" + name)) {
+            if (in == null) {
+                throw new IOException("Corpus file not found: " + name);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    @Benchmark
+    public String fixmDepToJson() {
+        return FIXM_Dep_DataConverter.convertFIXMDepXmlToJson(fixmDepXml);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> fixmDepToItem() {
+        return FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(fixmDepXml);
+    }
+
+    @Benchmark
+    public String fixmDepToJsonStax() {
+        return FIXM_Dep_DataConverter.convertFIXMDepXmlToJsonStax(fixmDepXml);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> fixmDepToItemStax() {
+        return FIXM_Dep_DataConverter.convertFIXMDepXmlToItemStax(fixmDepXml);
+    }
+
+    @Benchmark
+    public String fixmFplToJson() {
+        return FIXM_Fpl_DataConverter.convertFIXMFplXmlToJson(fixmFplXml);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> fixmFplToItem() {
+        return FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(fixmFplXml);
+    }
+
+    @Benchmark
+    public String fixmFplToJsonStax() {
+        return FIXM_Fpl_DataConverter.convertFIXMFplXmlToJsonStax(fixmFplXml);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> fixmFplToItemStax() {
+        return FIXM_Fpl_DataConverter.convertFIXMFplXmlToItemStax(fixmFplXml);
+    }
+
+    // The IWXXM loader hands the converters the Base64 payload it already read out of the envelope
+    @Benchmark
+    public String iwxxmToJson() {
+        return IWXXM_DataConverter.convertIWXXMBase64ToJson(iwxxmBase64, iwxxmId, LOG_TIMESTAMP);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> iwxxmToItem() {
+        return IWXXM_DataConverter.convertIWXXMBase64ToItem(iwxxmBase64, iwxxmId, LOG_TIMESTAMP);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> iwxxmToCompressedItem() {
+        return IWXXM_DataConverter.convertIWXXMBase64ToCompressedItem(iwxxmBase64, iwxxmId, LOG_TIMESTAMP);
+    }
+
+    // The whole message including the envelope, as convertIWXXMXmlToItem takes it
+    @Benchmark
+    public Map<String, AttributeValue> iwxxmEnvelopeToItem() {
+        return IWXXM_DataConverter.convertIWXXMXmlToItem(iwxxmMessage, iwxxmId, LOG_TIMESTAMP);
+    }
+
+    @Benchmark
+    public String metReportToJson() {
+        return METReport_DataConverter.convertMETDataToJson(metReportId, metReportData);
+    }
+
+    @Benchmark
+    public Map<String, AttributeValue> metReportToItem() {
+        return METReport_DataConverter.convertMETDataToItem(metReportId, metReportData);
+    }
+}
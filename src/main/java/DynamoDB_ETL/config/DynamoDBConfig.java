@@ -3,12 +3,16 @@ package DynamoDB_ETL.config;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.context.annotation.PropertySource;
 import software.amazon.awssdk.enhanced.dynamodb.DynamoDbEnhancedClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
 import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 
 import java.net.URI;
+import java.time.Duration;
 
 @Configuration
 @PropertySource("classpath:application.properties")
@@ -20,6 +24,12 @@ public class DynamoDBConfig {
     @Value("${serviceRegion}")
     private String serviceRegion;
 
+    @Value("${dynamodb.async.maxConnections:256}")
+    private int asyncMaxConnections;
+
+    @Value("${dynamodb.async.connectionAcquisitionTimeoutMs:10000}")
+    private long asyncConnectionAcquisitionTimeoutMs;
+
     @Bean
     public DynamoDbClient dynamoDbClient() {
         return DynamoDbClient.builder()
@@ -34,4 +44,17 @@ public class DynamoDBConfig {
                 .dynamoDbClient(dynamoDbClient)
                 .build();
     }
+
+    // Only created when dynamodb.write.mode=async, so the Netty event loop doesn't start otherwise
+    @Bean
+    @Lazy
+    public DynamoDbAsyncClient dynamoDbAsyncClient() {
+        return DynamoDbAsyncClient.builder()
+                .endpointOverride(URI.create(serviceEndpoint))
+                .region(Region.of(serviceRegion))
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(asyncMaxConnections)
+                        .connectionAcquisitionTimeout(Duration.ofMillis(asyncConnectionAcquisitionTimeoutMs)))
+                .build();
+    }
 }
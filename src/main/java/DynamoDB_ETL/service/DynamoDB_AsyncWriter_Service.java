@@ -0,0 +1,70 @@
+package DynamoDB_ETL.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
+
+@Service
+@Lazy
+public class DynamoDB_AsyncWriter_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoDB_AsyncWriter_Service.class);
+
+    @Autowired
+    private DynamoDbAsyncClient dynamoDbAsyncClient;
+
+    // Requests sent but not yet answered; callers block on the permit once this many are outstanding
+    @Value("${dynamodb.async.maxInFlight:256}")
+    private int maxInFlight;
+
+    private Semaphore inFlightPermits;
+
+    @PostConstruct
+    public void init() {
+        inFlightPermits = new Semaphore(maxInFlight);
+        LOG.info("DynamoDbAsyncClient initialized with up to {} writes in flight.", maxInFlight);
+    }
+
+    public CompletableFuture<Void> putItem(String tableName, Map<String, AttributeValue> item) {
+        return send(() -> dynamoDbAsyncClient.putItem(PutItemRequest.builder()
+                .tableName(tableName)
+                .item(item)
+                .build()));
+    }
+
+    public CompletableFuture<Void> updateItem(UpdateItemRequest request) {
+        return send(() -> dynamoDbAsyncClient.updateItem(request));
+    }
+
+    private CompletableFuture<Void> send(Supplier<CompletableFuture<?>> request) {
+        try {
+            inFlightPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<Void> future;
+        try {
+            future = request.get().thenApply(response -> null);
+        } catch (RuntimeException e) {
+            inFlightPermits.release();
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return future.whenComplete((v, e) -> inFlightPermits.release());
+    }
+}
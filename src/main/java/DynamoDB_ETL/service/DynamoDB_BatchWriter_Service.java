@@ -0,0 +1,295 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.DynamoDB_ItemSizeCalculator;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+
+@Service
+public class DynamoDB_BatchWriter_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoDB_BatchWriter_Service.class);
+
+    // BatchWriteItem hard limits
+    private static final int MAX_BATCH_ITEMS = 25;
+    private static final long MAX_BATCH_BYTES = 16L * 1024 * 1024;
+
+    @Autowired
+    private DynamoDbClient dynamoDbClient;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Autowired
+    private DynamoDB_RateLimiter_Service dynamoDBRateLimiterService;
+
+    @Value("${dynamodb.batch.maxItems:25}")
+    private int batchMaxItems;
+
+    @Value("${dynamodb.batch.maxRetries:8}")
+    private int maxRetries;
+
+    @Value("${dynamodb.batch.retryBaseDelayMs:50}")
+    private long retryBaseDelayMs;
+
+    @Value("${dynamodb.batch.retryMaxDelayMs:5000}")
+    private long retryMaxDelayMs;
+
+    // Items may be buffered or in a running flush; enqueue blocks beyond this so the consumers slow down
+    @Value("${dynamodb.batch.maxPendingItems:5000}")
+    private int maxPendingItems;
+
+    private final Map<String, TableBuffer> tableBuffers = new ConcurrentHashMap<>();
+    private final ExecutorService flushExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private Semaphore pendingPermits;
+
+    private static class PendingItem {
+        final Map<String, AttributeValue> item;
+        final long size;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        PendingItem(Map<String, AttributeValue> item, long size) {
+            this.item = item;
+            this.size = size;
+        }
+    }
+
+    // Items DynamoDB still handed back as UnprocessedItems after the last retry; throttling, so worth spooling
+    public static class UnprocessedItemsException extends RuntimeException {
+        public UnprocessedItemsException(String message) {
+            super(message);
+        }
+    }
+
+    private static class TableBuffer {
+        final List<PendingItem> items = new ArrayList<>();
+        long bytes;
+    }
+
+    @PostConstruct
+    public void init() {
+        pendingPermits = new Semaphore(maxPendingItems);
+    }
+
+    // Buffers an item for its table. The returned future completes once the batch holding it has been written.
+    public CompletableFuture<Void> enqueue(String tableName, Map<String, AttributeValue> item) {
+        PendingItem pendingItem = new PendingItem(item, DynamoDB_ItemSizeCalculator.calculateItemSize(item));
+
+        try {
+            pendingPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedFuture(e);
+        }
+        pendingItem.future.whenComplete((v, e) -> pendingPermits.release());
+
+        List<PendingItem> fullBatch = null;
+        TableBuffer buffer = tableBuffers.computeIfAbsent(tableName, t -> new TableBuffer());
+        synchronized (buffer) {
+            // Flush what is buffered first if this item would push the request over 16 MB
+            if (!buffer.items.isEmpty() && buffer.bytes + pendingItem.size > MAX_BATCH_BYTES) {
+                fullBatch = drain(buffer);
+            }
+            buffer.items.add(pendingItem);
+            buffer.bytes += pendingItem.size;
+            if (fullBatch == null && buffer.items.size() >= maxItemsPerBatch()) {
+                fullBatch = drain(buffer);
+            }
+        }
+
+        if (fullBatch != null) {
+            submitBatch(tableName, fullBatch);
+        }
+        return pendingItem.future;
+    }
+
+    // Time threshold: whatever is buffered gets written at least once per interval
+    @Scheduled(fixedDelayString = "${dynamodb.batch.flushIntervalMs:200}")
+    public void flush() {
+        for (Map.Entry<String, TableBuffer> entry : tableBuffers.entrySet()) {
+            List<PendingItem> batch;
+            synchronized (entry.getValue()) {
+                if (entry.getValue().items.isEmpty()) {
+                    continue;
+                }
+                batch = drain(entry.getValue());
+            }
+            submitBatch(entry.getKey(), batch);
+        }
+    }
+
+    private List<PendingItem> drain(TableBuffer buffer) {
+        List<PendingItem> batch = new ArrayList<>(buffer.items);
+        buffer.items.clear();
+        buffer.bytes = 0;
+        return batch;
+    }
+
+    private void submitBatch(String tableName, List<PendingItem> batch) {
+        flushExecutor.execute(() -> writeBatch(tableName, batch));
+    }
+
+    private void writeBatch(String tableName, List<PendingItem> batch) {
+        List<PendingItem> remaining = batch;
+        int attempt = 0;
+
+        while (!remaining.isEmpty()) {
+            long writeUnits = 0;
+            for (PendingItem pendingItem : remaining) {
+                writeUnits += DynamoDB_ItemSizeCalculator.calculateWriteUnits(pendingItem.size);
+            }
+            if (!dynamoDBRateLimiterService.acquire(tableName, writeUnits)) {
+                failAll(remaining, new InterruptedException("Interrupted while waiting for write capacity"));
+                return;
+            }
+
+            try {
+                List<WriteRequest> writeRequests = new ArrayList<>(remaining.size());
+                for (PendingItem pendingItem : remaining) {
+                    writeRequests.add(WriteRequest.builder()
+                            .putRequest(PutRequest.builder().item(pendingItem.item).build())
+                            .build());
+                }
+
+                BatchWriteItemResponse response = dynamoDbClient.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(Collections.singletonMap(tableName, writeRequests))
+                        .build());
+
+                List<WriteRequest> unprocessed = response.hasUnprocessedItems()
+                        ? response.unprocessedItems().getOrDefault(tableName, Collections.emptyList())
+                        : Collections.emptyList();
+                if (!unprocessed.isEmpty()) {
+                    etlMetricsService.recordThrottle(tableName);
+                    dynamoDBRateLimiterService.recordThrottle(tableName);
+                } else {
+                    dynamoDBRateLimiterService.recordSuccess(tableName);
+                }
+                remaining = completeProcessed(remaining, unprocessed);
+
+            } catch (ProvisionedThroughputExceededException | RequestLimitExceededException e) {
+                LOG.warn("Batch write to {} throttled: {}", tableName, e.getMessage());
+                etlMetricsService.recordThrottle(tableName);
+                dynamoDBRateLimiterService.recordThrottle(tableName);
+
+            } catch (DynamoDbException e) {
+                if (e.awsErrorDetails() != null && "ValidationException".equals(e.awsErrorDetails().errorCode())) {
+                    // Typically two items with the same key in one batch; put them one by one instead
+                    writeIndividually(tableName, remaining);
+                } else {
+                    failAll(remaining, e);
+                }
+                return;
+
+            } catch (Exception e) {
+                failAll(remaining, e);
+                return;
+            }
+
+            if (!remaining.isEmpty()) {
+                if (++attempt > maxRetries) {
+                    failAll(remaining, new UnprocessedItemsException(
+                            "Unprocessed items for " + tableName + " after " + maxRetries + " retries"));
+                    return;
+                }
+                if (!backoff(attempt)) {
+                    failAll(remaining, new InterruptedException("Interrupted while retrying batch write"));
+                    return;
+                }
+            }
+        }
+    }
+
+    // Completes every item DynamoDB accepted and returns the ones it handed back as UnprocessedItems
+    private List<PendingItem> completeProcessed(List<PendingItem> sent, List<WriteRequest> unprocessed) {
+        if (unprocessed.isEmpty()) {
+            sent.forEach(pendingItem -> pendingItem.future.complete(null));
+            return Collections.emptyList();
+        }
+
+        Set<Map<String, AttributeValue>> unprocessedItems = new HashSet<>();
+        for (WriteRequest writeRequest : unprocessed) {
+            if (writeRequest.putRequest() != null) {
+                unprocessedItems.add(writeRequest.putRequest().item());
+            }
+        }
+
+        List<PendingItem> remaining = new ArrayList<>(unprocessed.size());
+        for (PendingItem pendingItem : sent) {
+            if (unprocessedItems.contains(pendingItem.item)) {
+                remaining.add(pendingItem);
+            } else {
+                pendingItem.future.complete(null);
+            }
+        }
+        return remaining;
+    }
+
+    // Each PutItem takes its own units from the rate limiter, like every other write path
+    private void writeIndividually(String tableName, List<PendingItem> items) {
+        for (PendingItem pendingItem : items) {
+            if (!dynamoDBRateLimiterService.acquire(tableName,
+                    DynamoDB_ItemSizeCalculator.calculateWriteUnits(pendingItem.size))) {
+                pendingItem.future.completeExceptionally(new InterruptedException("Interrupted while waiting for write capacity"));
+                continue;
+            }
+            try {
+                dynamoDbClient.putItem(PutItemRequest.builder()
+                        .tableName(tableName)
+                        .item(pendingItem.item)
+                        .build());
+                dynamoDBRateLimiterService.recordSuccess(tableName);
+                pendingItem.future.complete(null);
+            } catch (Exception e) {
+                dynamoDBRateLimiterService.recordResult(tableName, e);
+                pendingItem.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    // Exponential backoff with full jitter
+    private boolean backoff(int attempt) {
+        long ceiling = Math.min(retryMaxDelayMs, retryBaseDelayMs << Math.min(attempt, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void failAll(List<PendingItem> items, Throwable cause) {
+        items.forEach(pendingItem -> pendingItem.future.completeExceptionally(cause));
+    }
+
+    private int maxItemsPerBatch() {
+        return Math.max(1, Math.min(batchMaxItems, MAX_BATCH_ITEMS));
+    }
+}
@@ -0,0 +1,156 @@
+package DynamoDB_ETL.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Write stage for items with last-state semantics (one item per key that every update is merged into).
+// The newest version per key is held for dynamodb.coalesce.windowMs after the first update arrived and only
+// that one is written, so a flight that receives several updates within seconds costs a single write. It is
+// merged with UpdateItem, so attributes other writers merged into the same item are kept.
+// Per-message history items do not go through here.
+//
+// Other writes merged into the same item, like departures, must not be overtaken by an older update held here:
+// flush(tableName, partitionKey) writes what is held for the key first. A held update takes its place in the
+// key's write order (ETL_PartitionedExecutor_Service) while the lock is held, so a write for the key that is
+// submitted afterwards always comes after it.
+//
+// The latest state is best-effort: a message is acknowledged once its history item is stored, while its
+// latest-state write may still be held back here. Such a write that fails in a way worth retrying is spooled and
+// replayed like any other; one DynamoDB rejects outright, or whatever is held when the process dies, is logged or
+// lost, and the item catches up with the flight's next update. Tying the acknowledgement to it instead would hold
+// every acknowledgement group for up to windowMs.
+@Service
+public class DynamoDB_Coalescing_Service {
+
+    @Autowired
+    private DynamoDB_Writer_Service dynamoDBWriterService;
+
+    @Autowired
+    private ETL_PartitionedExecutor_Service etlPartitionedExecutorService;
+
+    @Autowired
+    private ETL_Logging_Service etlLoggingService;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Value("${dynamodb.coalesce.windowMs:2000}")
+    private long windowMs;
+
+    // Insertion order is also deadline order, since every key is held for the same window
+    private final LinkedHashMap<String, PendingState> pending = new LinkedHashMap<>();
+
+    // Starts the writes, so submitting one under the lock does not wait for DynamoDB or the rate limiter
+    private final ExecutorService writeExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private static class PendingState {
+        final String tableName;
+        final String keyAttribute;
+        final String partitionKey;
+        final long deadline;
+        String version;
+        Map<String, AttributeValue> item;
+
+        PendingState(String tableName, String keyAttribute, String partitionKey, long deadline, String version,
+                     Map<String, AttributeValue> item) {
+            this.tableName = tableName;
+            this.keyAttribute = keyAttribute;
+            this.partitionKey = partitionKey;
+            this.deadline = deadline;
+            this.version = version;
+            this.item = item;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        etlMetricsService.gauge("etl.coalesce.pending", "Last-state items held back by the coalescing window", this::size);
+    }
+
+    // Versions are compared as strings (e.g. the fixed-width logTimestamp); an update older than the one
+    // already held is dropped, an equal or newer one replaces it
+    public void offer(String tableName, String keyAttribute, String version, Map<String, AttributeValue> item) {
+        String partitionKey = item.get(keyAttribute).s();
+        boolean superseded;
+        synchronized (pending) {
+            PendingState state = pending.get(tableName + "|" + partitionKey);
+            if (state == null) {
+                pending.put(tableName + "|" + partitionKey, new PendingState(tableName, keyAttribute, partitionKey,
+                        System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMs), version, item));
+                return;
+            }
+            superseded = version != null && state.version != null && version.compareTo(state.version) < 0;
+            if (!superseded) {
+                state.version = version;
+                state.item = item;
+            }
+        }
+        etlMetricsService.recordCoalesced(tableName, superseded);
+    }
+
+    @Scheduled(fixedDelayString = "${dynamodb.coalesce.flushIntervalMs:200}")
+    public void flushExpired() {
+        write(false);
+    }
+
+    // Writes everything held, e.g. before shutdown; completes once those writes finished
+    public CompletableFuture<Void> flush() {
+        return write(true);
+    }
+
+    // Writes what is held for the key now, ahead of a write for the same item that is submitted after this returns
+    public void flush(String tableName, String partitionKey) {
+        synchronized (pending) {
+            PendingState state = pending.remove(tableName + "|" + partitionKey);
+            if (state != null) {
+                submit(state);
+            }
+        }
+    }
+
+    private CompletableFuture<Void> write(boolean all) {
+        List<CompletableFuture<Void>> writes = new ArrayList<>();
+        long now = System.nanoTime();
+        synchronized (pending) {
+            Iterator<PendingState> iterator = pending.values().iterator();
+            while (iterator.hasNext()) {
+                PendingState state = iterator.next();
+                if (!all && state.deadline - now > 0) {
+                    break;
+                }
+                iterator.remove();
+                writes.add(submit(state));
+            }
+        }
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]));
+    }
+
+    private CompletableFuture<Void> submit(PendingState state) {
+        long start = System.nanoTime();
+        return etlPartitionedExecutorService.submit(state.partitionKey,
+                        () -> CompletableFuture.supplyAsync(
+                                () -> dynamoDBWriterService.updateItem(state.tableName, state.keyAttribute, state.item),
+                                writeExecutor).thenCompose(write -> write))
+                .whenComplete((v, e) -> etlLoggingService.logWriteResult(state.tableName, state.item, start, e));
+    }
+
+    private int size() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+}
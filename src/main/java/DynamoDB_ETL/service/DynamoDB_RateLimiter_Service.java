@@ -0,0 +1,160 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.DynamoDB_ItemSizeCalculator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Per-table token bucket in write capacity units, estimated from item size. The rate adapts AIMD-style:
+// it is cut by dynamodb.rateLimit.decreaseFactor when DynamoDB throttles and grows by
+// dynamodb.rateLimit.increaseWcuPerSecond for every second of unthrottled writing, so the writers settle
+// just under the provisioned capacity instead of bursting into throttling and retry storms.
+@Service
+public class DynamoDB_RateLimiter_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoDB_RateLimiter_Service.class);
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Value("${dynamodb.rateLimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${dynamodb.rateLimit.initialWcuPerSecond:1000}")
+    private double initialRate;
+
+    @Value("${dynamodb.rateLimit.minWcuPerSecond:5}")
+    private double minRate;
+
+    @Value("${dynamodb.rateLimit.maxWcuPerSecond:40000}")
+    private double maxRate;
+
+    @Value("${dynamodb.rateLimit.increaseWcuPerSecond:50}")
+    private double increasePerSecond;
+
+    @Value("${dynamodb.rateLimit.decreaseFactor:0.5}")
+    private double decreaseFactor;
+
+    // Throttles within this long of a cut belong to the same burst and do not cut the rate again
+    @Value("${dynamodb.rateLimit.decreaseCooldownMs:1000}")
+    private long decreaseCooldownMs;
+
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private class TokenBucket {
+        double rate = initialRate;
+        // Up to one second of capacity may be saved up; below zero callers are paying off a larger request
+        double tokens = initialRate;
+        double consumedSinceIncrease;
+        long lastRefill = System.nanoTime();
+        long lastIncrease = lastRefill;
+        long lastDecrease = lastRefill - TimeUnit.MILLISECONDS.toNanos(decreaseCooldownMs);
+
+        // Takes the units and returns how long the caller has to wait before sending
+        synchronized long reserve(long writeUnits) {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + rate * (now - lastRefill) / 1e9);
+            lastRefill = now;
+
+            tokens -= writeUnits;
+            consumedSinceIncrease += writeUnits;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        // Only grows while the limit is actually in use, so a quiet period does not leave it far above capacity
+        synchronized void increase() {
+            long now = System.nanoTime();
+            double elapsedSeconds = (now - lastIncrease) / 1e9;
+            if (elapsedSeconds < 1) {
+                return;
+            }
+            if (consumedSinceIncrease >= rate * elapsedSeconds / 2) {
+                rate = Math.min(maxRate, rate + increasePerSecond * elapsedSeconds);
+            }
+            consumedSinceIncrease = 0;
+            lastIncrease = now;
+        }
+
+        synchronized boolean decrease() {
+            long now = System.nanoTime();
+            if (now - lastDecrease < TimeUnit.MILLISECONDS.toNanos(decreaseCooldownMs)) {
+                return false;
+            }
+            rate = Math.max(minRate, rate * decreaseFactor);
+            tokens = Math.min(tokens, 0);
+            consumedSinceIncrease = 0;
+            lastDecrease = now;
+            lastIncrease = now;
+            return true;
+        }
+
+        synchronized double rate() {
+            return rate;
+        }
+    }
+
+    public boolean acquire(String tableName, Map<String, AttributeValue> item) {
+        return acquire(tableName, DynamoDB_ItemSizeCalculator.calculateWriteUnits(
+                DynamoDB_ItemSizeCalculator.calculateItemSize(item)));
+    }
+
+    // Blocks until the table's bucket has capacity for the units. False if interrupted while waiting.
+    public boolean acquire(String tableName, long writeUnits) {
+        if (!enabled) {
+            return true;
+        }
+
+        long waitNanos = bucket(tableName).reserve(writeUnits);
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Feedback from a finished request: throttling cuts the rate, success lets it grow
+    public void recordResult(String tableName, Throwable e) {
+        if (e == null) {
+            recordSuccess(tableName);
+        } else if (ETL_Metrics_Service.isThrottling(e)) {
+            recordThrottle(tableName);
+        }
+    }
+
+    public void recordSuccess(String tableName) {
+        if (enabled) {
+            bucket(tableName).increase();
+        }
+    }
+
+    public void recordThrottle(String tableName) {
+        if (!enabled) {
+            return;
+        }
+        TokenBucket bucket = bucket(tableName);
+        if (bucket.decrease()) {
+            LOG.warn("Write rate for {} lowered to {} WCU/s after throttling", tableName, Math.round(bucket.rate()));
+        }
+    }
+
+    private TokenBucket bucket(String tableName) {
+        return buckets.computeIfAbsent(tableName, t -> {
+            TokenBucket bucket = new TokenBucket();
+            etlMetricsService.gauge("etl.dynamodb.write.rate.limit", "Current write rate limit in WCU per second",
+                    bucket::rate, "table", t);
+            return bucket;
+        });
+    }
+}
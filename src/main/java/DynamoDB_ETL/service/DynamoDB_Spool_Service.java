@@ -0,0 +1,426 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.DynamoDB_ItemCodec;
+import DynamoDB_ETL.util.DynamoDB_MergeRequest;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.ApiCallAttemptTimeoutException;
+import software.amazon.awssdk.core.exception.ApiCallTimeoutException;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+
+// Append-only, memory-mapped on-disk spool for items DynamoDB could not take (throttling, 5xx, network
+// errors, batch retries used up), and for latest-state merges, which are replayed as merges. The writer spools
+// such an item and reports it stored, so the consumers keep going at full speed; a scheduled drainer replays the
+// spool at a fixed rate once DynamoDB accepts writes again. A replay can come long after newer writes for the
+// same key went through, so it is conditional on the stored item not coming from a newer message
+// (logTimestamp) and skipped otherwise.
+//
+// Segment file layout: [long drained offset] followed by records of [int length][int crc32][encoded item].
+// A zero length marks the end of what was written; a record whose CRC does not match (torn by a crash) ends
+// the segment as well. Fully drained segments other than the one being appended to are deleted.
+//
+// Items the drain gives up on (rejected by DynamoDB, or still failing after spool.maxReplays replays) are
+// appended to the dead-letter file in the same record layout instead of being dropped.
+@Service
+public class DynamoDB_Spool_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoDB_Spool_Service.class);
+
+    private static final int SEGMENT_HEADER_BYTES = Long.BYTES;
+    private static final int RECORD_HEADER_BYTES = 2 * Integer.BYTES;
+    private static final String SEGMENT_PREFIX = "spool-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String DEAD_LETTER_FILE = "dead-letter.rec";
+
+    @Autowired
+    private DynamoDbClient dynamoDbClient;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Autowired
+    private DynamoDB_RateLimiter_Service dynamoDBRateLimiterService;
+
+    @Value("${spool.enabled:true}")
+    private boolean enabled;
+
+    @Value("${spool.directory:spool}")
+    private String directory;
+
+    // Size of each mapped segment file; an item larger than this cannot be spooled
+    @Value("${spool.segmentBytes:67108864}")
+    private int segmentBytes;
+
+    @Value("${spool.drainRatePerSecond:50}")
+    private int drainRatePerSecond;
+
+    @Value("${spool.drainIntervalMs:1000}")
+    private long drainIntervalMs;
+
+    // Replays of the oldest item failing with a 5xx or network error before it is dead-lettered; throttling
+    // says nothing about the item and is not counted
+    @Value("${spool.maxReplays:100}")
+    private int maxReplays;
+
+    // Oldest first; items are appended to the last one
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextSegmentId;
+    private long pendingItems;
+    // Counted failed replays of the oldest item; only touched by the drain
+    private int oldestItemFailures;
+
+    private static class Segment {
+        final Path path;
+        final MappedByteBuffer buffer;
+        int readOffset;
+        int writeOffset;
+
+        Segment(Path path, MappedByteBuffer buffer) {
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        boolean isDrained() {
+            return readOffset >= writeOffset;
+        }
+    }
+
+    private static class SpooledItem {
+        final Segment segment;
+        final int nextOffset;
+        final DynamoDB_ItemCodec.Record record;
+
+        SpooledItem(Segment segment, int nextOffset, DynamoDB_ItemCodec.Record record) {
+            this.segment = segment;
+            this.nextOffset = nextOffset;
+            this.record = record;
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        Path spoolDirectory = Paths.get(directory);
+        Files.createDirectories(spoolDirectory);
+
+        // Items left over from a previous run are drained like any other
+        List<Path> existing = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            files.forEach(existing::add);
+        }
+        existing.sort(null);
+        for (Path path : existing) {
+            if (Files.size(path) < SEGMENT_HEADER_BYTES) {
+                Files.delete(path);
+                continue;
+            }
+            segments.addLast(recover(path));
+            nextSegmentId = Math.max(nextSegmentId, segmentId(path) + 1);
+        }
+        if (pendingItems > 0) {
+            LOG.info("Spool holds {} items from a previous run in {} segments", pendingItems, segments.size());
+        }
+
+        etlMetricsService.gauge("etl.spool.pending.items", "Items waiting in the local spool", this::pendingItems);
+    }
+
+    // Only failures known to pass are worth replaying later: throttling, batch retries used up, 5xx, and
+    // network errors and timeouts on the client side. Anything else, a ValidationException as well as a
+    // NullPointerException or IllegalArgumentException from our own code, would fail the same way again.
+    public static boolean isSpoolable(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (ETL_Metrics_Service.isThrottling(cause) || cause instanceof DynamoDB_BatchWriter_Service.UnprocessedItemsException) {
+            return true;
+        }
+        if (cause instanceof AwsServiceException) {
+            return ((AwsServiceException) cause).statusCode() >= 500;
+        }
+        if (cause instanceof SdkClientException) {
+            return ((SdkClientException) cause).retryable() || cause instanceof ApiCallTimeoutException
+                    || cause instanceof ApiCallAttemptTimeoutException || hasNetworkCause(cause.getCause());
+        }
+        // The write was not sent: interrupted waiting for write capacity on shutdown
+        return cause instanceof InterruptedException || hasNetworkCause(cause);
+    }
+
+    private static boolean hasNetworkCause(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof IOException || cause instanceof UncheckedIOException || cause instanceof TimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // True once the item is written to the spool and forced to disk; false if spooling is off or failed
+    public boolean append(String tableName, Map<String, AttributeValue> item) {
+        return append(tableName, null, item);
+    }
+
+    // Same for attributes that are merged into the item with the given key attribute when drained
+    public synchronized boolean append(String tableName, String keyAttribute, Map<String, AttributeValue> item) {
+        if (!enabled) {
+            return false;
+        }
+
+        byte[] payload = DynamoDB_ItemCodec.encode(tableName, keyAttribute, item);
+        int recordBytes = RECORD_HEADER_BYTES + payload.length;
+        if (SEGMENT_HEADER_BYTES + recordBytes > segmentBytes) {
+            LOG.error("Item of {} bytes for {} does not fit in a spool segment", payload.length, tableName);
+            return false;
+        }
+
+        try {
+            Segment segment = segments.peekLast();
+            if (segment == null || segment.writeOffset + recordBytes > segment.buffer.capacity()) {
+                segment = createSegment();
+            }
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            // Length goes in last, so a record is never visible before its body
+            int offset = segment.writeOffset;
+            segment.buffer.put(offset + RECORD_HEADER_BYTES, payload);
+            segment.buffer.putInt(offset + Integer.BYTES, (int) crc.getValue());
+            segment.buffer.putInt(offset, payload.length);
+            segment.buffer.force(offset, recordBytes);
+
+            segment.writeOffset += recordBytes;
+            pendingItems++;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Failed to spool item for {}: {}", tableName, e.getMessage());
+            return false;
+        }
+    }
+
+    // Replays up to drainRatePerSecond items per second, oldest first. Stops at the first failure that is worth retrying
+    // and tries again on the next run; items DynamoDB rejects outright are logged and dropped. Blocks on putItem
+    // and the rate limiter, so spring.task.scheduling.pool.size gives it a scheduler thread of its own.
+    @Scheduled(fixedDelayString = "${spool.drainIntervalMs:1000}")
+    public void drain() {
+        if (!enabled || pendingItems() == 0) {
+            return;
+        }
+
+        long budget = Math.max(1, drainRatePerSecond * drainIntervalMs / 1000);
+        for (long i = 0; i < budget; i++) {
+            SpooledItem spooledItem = next();
+            if (spooledItem == null) {
+                return;
+            }
+
+            DynamoDB_ItemCodec.Record record = spooledItem.record;
+            long start = System.nanoTime();
+            if (!dynamoDBRateLimiterService.acquire(record.tableName, record.item)) {
+                return;
+            }
+            try {
+                boolean written;
+                if (record.keyAttribute != null) {
+                    written = DynamoDB_MergeRequest.mergeIfNewer(dynamoDbClient, record.tableName, record.keyAttribute, record.item);
+                } else {
+                    written = putIfNewer(record);
+                }
+                if (!written) {
+                    LOG.info("Skipped spooled item for {}: the stored item comes from a newer message", record.tableName);
+                }
+                etlMetricsService.recordWrite(record.tableName, record.item, start, null);
+                dynamoDBRateLimiterService.recordResult(record.tableName, null);
+            } catch (Exception e) {
+                etlMetricsService.recordWrite(record.tableName, record.item, start, e);
+                dynamoDBRateLimiterService.recordResult(record.tableName, e);
+                if (!isSpoolable(e)) {
+                    LOG.error("Dead-lettering spooled item for {} rejected by DynamoDB: {}", record.tableName, e.getMessage());
+                    deadLetter(record, "rejected");
+                } else if (!ETL_Metrics_Service.isThrottling(e) && maxReplays > 0 && ++oldestItemFailures >= maxReplays) {
+                    LOG.error("Dead-lettering spooled item for {} after {} failed replays: {}", record.tableName,
+                            oldestItemFailures, e.getMessage());
+                    deadLetter(record, "maxReplays");
+                } else {
+                    LOG.warn("Spool drain paused with {} items left: {}", pendingItems(), e.getMessage());
+                    return;
+                }
+            }
+            oldestItemFailures = 0;
+            commit(spooledItem);
+        }
+    }
+
+    private boolean putIfNewer(DynamoDB_ItemCodec.Record record) {
+        try {
+            dynamoDbClient.putItem(DynamoDB_MergeRequest.putIfNewer(record.tableName, record.item));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    // Appended and forced to disk before the item is committed, so a crash in between replays it once more
+    private void deadLetter(DynamoDB_ItemCodec.Record record, String reason) {
+        byte[] payload = DynamoDB_ItemCodec.encode(record.tableName, record.keyAttribute, record.item);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length)
+                .putInt(payload.length)
+                .putInt((int) crc.getValue())
+                .put(payload)
+                .flip();
+        try (FileChannel channel = FileChannel.open(Paths.get(directory, DEAD_LETTER_FILE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            LOG.error("Failed to dead-letter spooled item for {}, dropping it: {}", record.tableName, e.getMessage());
+        }
+        etlMetricsService.recordSpoolDeadLettered(record.tableName, reason);
+    }
+
+    public synchronized long pendingItems() {
+        return pendingItems;
+    }
+
+    // Oldest item not drained yet, or null if the spool is empty
+    private synchronized SpooledItem next() {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            if (segment.isDrained()) {
+                if (segment == segments.peekLast()) {
+                    return null;
+                }
+                deleteSegment(segments.pollFirst());
+                continue;
+            }
+
+            int offset = segment.readOffset;
+            int length = segment.buffer.getInt(offset);
+            byte[] payload = new byte[length];
+            segment.buffer.get(offset + RECORD_HEADER_BYTES, payload);
+            int nextOffset = offset + RECORD_HEADER_BYTES + length;
+            try {
+                return new SpooledItem(segment, nextOffset, DynamoDB_ItemCodec.decode(payload));
+            } catch (IllegalArgumentException e) {
+                LOG.error("Skipping unreadable spool record in {} at {}: {}", segment.path, offset, e.getMessage());
+                advance(segment, nextOffset);
+            }
+        }
+        return null;
+    }
+
+    private synchronized void commit(SpooledItem spooledItem) {
+        advance(spooledItem.segment, spooledItem.nextOffset);
+    }
+
+    private void advance(Segment segment, int nextOffset) {
+        segment.readOffset = nextOffset;
+        segment.buffer.putLong(0, nextOffset);
+        pendingItems--;
+    }
+
+    private Segment createSegment() throws IOException {
+        Path path = Paths.get(directory, String.format("%s%019d%s", SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+        Segment segment = new Segment(path, map(path, segmentBytes));
+        segment.readOffset = SEGMENT_HEADER_BYTES;
+        segment.writeOffset = SEGMENT_HEADER_BYTES;
+        segment.buffer.putLong(0, SEGMENT_HEADER_BYTES);
+        segments.addLast(segment);
+        return segment;
+    }
+
+    // Finds the end of the valid records of a segment written by an earlier run
+    private Segment recover(Path path) throws IOException {
+        Segment segment = new Segment(path, map(path, (int) Files.size(path)));
+        MappedByteBuffer buffer = segment.buffer;
+        long readOffset = buffer.getLong(0);
+
+        int offset = SEGMENT_HEADER_BYTES;
+        int validRecords = 0;
+        int drainedRecords = 0;
+        while (offset + RECORD_HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > buffer.capacity() - offset - RECORD_HEADER_BYTES) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(offset + RECORD_HEADER_BYTES, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(offset + Integer.BYTES)) {
+                LOG.warn("Spool segment {} ends in a torn record at {}", path, offset);
+                break;
+            }
+            offset += RECORD_HEADER_BYTES + length;
+            validRecords++;
+            if (offset <= readOffset) {
+                drainedRecords++;
+            }
+        }
+
+        segment.writeOffset = offset;
+        segment.readOffset = (int) Math.max(SEGMENT_HEADER_BYTES, Math.min(readOffset, offset));
+        pendingItems += validRecords - drainedRecords;
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path path, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static void deleteSegment(Segment segment) {
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException e) {
+            LOG.warn("Failed to delete drained spool segment {}: {}", segment.path, e.getMessage());
+        }
+    }
+
+    private static long segmentId(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
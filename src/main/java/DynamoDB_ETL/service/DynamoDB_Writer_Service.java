@@ -0,0 +1,131 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.DynamoDB_MergeRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Service
+public class DynamoDB_Writer_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DynamoDB_Writer_Service.class);
+
+    @Autowired
+    private DynamoDbClient dynamoDbClient;
+
+    @Autowired
+    private DynamoDB_BatchWriter_Service dynamoDBBatchWriterService;
+
+    @Lazy
+    @Autowired
+    private DynamoDB_AsyncWriter_Service dynamoDBAsyncWriterService;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Autowired
+    private DynamoDB_Spool_Service dynamoDBSpoolService;
+
+    @Autowired
+    private DynamoDB_RateLimiter_Service dynamoDBRateLimiterService;
+
+    // sync: one PutItem per message, batch: buffered BatchWriteItem, async: pipelined PutItem on DynamoDbAsyncClient
+    @Value("${dynamodb.write.mode:batch}")
+    private String writeMode;
+
+    // Spool appends force to disk, so they run off the batch flush and Netty threads that complete the writes
+    private final ExecutorService spoolExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Single entry point for the DataLoader services. The future completes once the item is stored, either in
+    // DynamoDB or, while DynamoDB is throttling or unreachable, in the local spool that is replayed later.
+    public CompletableFuture<Void> putItem(String tableName, Map<String, AttributeValue> item) {
+        long start = System.nanoTime();
+        return write(tableName, item)
+                .whenComplete((v, e) -> etlMetricsService.recordWrite(tableName, item, start, e))
+                .exceptionallyComposeAsync(e -> spoolOrFail(tableName, null, item, e), spoolExecutor);
+    }
+
+    // Merges the attributes into the item whose key attribute has the given name, creating it if it does not
+    // exist; attributes of the stored item that are not named here are kept, and so are the entries of its maps
+    // (see DynamoDB_MergeRequest). Only the named attributes are sent. Always UpdateItem (BatchWriteItem cannot
+    // update); spooled like putItem, and merged the same way when the spool is drained.
+    public CompletableFuture<Void> updateItem(String tableName, String keyAttribute, Map<String, AttributeValue> attributes) {
+        long start = System.nanoTime();
+        UpdateItemRequest request = DynamoDB_MergeRequest.update(tableName, keyAttribute, attributes, true, false);
+        return update(tableName, attributes, request)
+                // Off the Netty threads, since the retry waits for write capacity again
+                .exceptionallyComposeAsync(e -> DynamoDB_MergeRequest.isMissingParent(e)
+                        ? update(tableName, attributes, DynamoDB_MergeRequest.createParents(tableName, keyAttribute, attributes, false))
+                                .thenCompose(v -> update(tableName, attributes,
+                                        DynamoDB_MergeRequest.update(tableName, keyAttribute, attributes, false, false)))
+                        : CompletableFuture.failedFuture(e), spoolExecutor)
+                .whenComplete((v, e) -> etlMetricsService.recordWrite(tableName, attributes, start, e))
+                .exceptionallyComposeAsync(e -> spoolOrFail(tableName, keyAttribute, attributes, e), spoolExecutor);
+    }
+
+    private CompletableFuture<Void> update(String tableName, Map<String, AttributeValue> attributes, UpdateItemRequest request) {
+        if (!dynamoDBRateLimiterService.acquire(tableName, attributes)) {
+            return CompletableFuture.failedFuture(new InterruptedException("Interrupted while waiting for write capacity"));
+        }
+
+        CompletableFuture<Void> result;
+        if ("async".equalsIgnoreCase(writeMode)) {
+            result = dynamoDBAsyncWriterService.updateItem(request);
+        } else {
+            try {
+                dynamoDbClient.updateItem(request);
+                result = CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+        }
+        return result.whenComplete((v, e) -> dynamoDBRateLimiterService.recordResult(tableName, e));
+    }
+
+    // keyAttribute is null for an item that is put, else the key the attributes are merged on
+    private CompletableFuture<Void> spoolOrFail(String tableName, String keyAttribute, Map<String, AttributeValue> item, Throwable e) {
+        if (DynamoDB_Spool_Service.isSpoolable(e) && dynamoDBSpoolService.append(tableName, keyAttribute, item)) {
+            LOG.warn("Spooled item for {} after a failed write: {}", tableName, e.getMessage());
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.failedFuture(e);
+    }
+
+    private CompletableFuture<Void> write(String tableName, Map<String, AttributeValue> item) {
+        if ("batch".equalsIgnoreCase(writeMode)) {
+            return dynamoDBBatchWriterService.enqueue(tableName, item);
+        }
+
+        if (!dynamoDBRateLimiterService.acquire(tableName, item)) {
+            return CompletableFuture.failedFuture(new InterruptedException("Interrupted while waiting for write capacity"));
+        }
+
+        CompletableFuture<Void> result;
+        if ("async".equalsIgnoreCase(writeMode)) {
+            result = dynamoDBAsyncWriterService.putItem(tableName, item);
+        } else {
+            try {
+                dynamoDbClient.putItem(PutItemRequest.builder()
+                        .tableName(tableName)
+                        .item(item)
+                        .build());
+                result = CompletableFuture.completedFuture(null);
+            } catch (Exception e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+        }
+        return result.whenComplete((v, e) -> dynamoDBRateLimiterService.recordResult(tableName, e));
+    }
+}
@@ -0,0 +1,151 @@
+package DynamoDB_ETL.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Bounded, time-expiring record of messages and items already handled, so broker redeliveries and SWIM
+// republishing do not cost a second conversion and write. Keys are claimed before the work starts and
+// released again if it fails, so a later redelivery of a failed message is still processed.
+@Service
+public class ETL_Dedup_Service {
+
+    // Rough heap cost of one entry besides its key characters: String, LinkedHashMap entry and the Long expiry
+    private static final long ENTRY_OVERHEAD_BYTES = 120;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Value("${dedup.enabled:true}")
+    private boolean enabled;
+
+    @Value("${dedup.ttlSeconds:900}")
+    private long ttlSeconds;
+
+    // Oldest entries are evicted early once the estimated size of the cache passes this
+    @Value("${dedup.maxMemoryBytes:16777216}")
+    private long maxMemoryBytes;
+
+    // Insertion order is also expiry order, since every entry lives for the same TTL
+    private final LinkedHashMap<String, Long> expiries = new LinkedHashMap<>();
+    private long estimatedBytes;
+
+    @PostConstruct
+    public void init() {
+        etlMetricsService.gauge("etl.dedup.cache.entries", "Keys held by the dedup cache", this::size);
+        etlMetricsService.gauge("etl.dedup.cache.bytes", "Estimated heap used by the dedup cache", this::estimatedBytes);
+    }
+
+    // Redeliveries keep their JMSMessageID; the content hash guards against an id being reused for other content
+    public static String messageKey(String jmsMessageID, String content) {
+        if (jmsMessageID == null || content == null) {
+            return null;
+        }
+        return "message|" + jmsMessageID + "|" + Integer.toHexString(content.hashCode()) + ":" + content.length();
+    }
+
+    // Same for a BytesMessage body in content[0, length); hashed like String.hashCode, so an ASCII body gets
+    // the key it would have as a TextMessage
+    public static String messageKey(String jmsMessageID, byte[] content, int length) {
+        if (jmsMessageID == null || content == null) {
+            return null;
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + (content[i] & 0xff);
+        }
+        return "message|" + jmsMessageID + "|" + Integer.toHexString(hash) + ":" + length;
+    }
+
+    // Key of what a message describes, e.g. itemKey("FIXM", gufi, logTimestamp) or itemKey("IWXXM", id)
+    public static String itemKey(String kind, String... parts) {
+        StringBuilder key = new StringBuilder(kind);
+        for (String part : parts) {
+            if (part == null || part.isEmpty()) {
+                return null;
+            }
+            key.append('|').append(part);
+        }
+        return key.toString();
+    }
+
+    // True if the caller should go ahead, false if the key was already claimed within the TTL (a duplicate).
+    // A null key is never a duplicate.
+    public boolean claim(String key) {
+        if (!enabled || key == null) {
+            return true;
+        }
+
+        long now = System.nanoTime();
+        boolean claimed;
+        synchronized (expiries) {
+            evictExpired(now);
+            Long expiry = expiries.get(key);
+            claimed = expiry == null;
+            if (claimed) {
+                expiries.put(key, now + TimeUnit.SECONDS.toNanos(ttlSeconds));
+                estimatedBytes += entryBytes(key);
+                evictOverCap();
+            }
+        }
+
+        etlMetricsService.recordDedupLookup(key.substring(0, key.indexOf('|')), !claimed);
+        return claimed;
+    }
+
+    // Forgets keys whose message failed, so that it can be processed again
+    public void release(String... keys) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (expiries) {
+            for (String key : keys) {
+                if (key != null && expiries.remove(key) != null) {
+                    estimatedBytes -= entryBytes(key);
+                }
+            }
+        }
+    }
+
+    private void evictExpired(long now) {
+        Iterator<Map.Entry<String, Long>> iterator = expiries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (entry.getValue() - now > 0) {
+                return;
+            }
+            estimatedBytes -= entryBytes(entry.getKey());
+            iterator.remove();
+        }
+    }
+
+    private void evictOverCap() {
+        Iterator<Map.Entry<String, Long>> iterator = expiries.entrySet().iterator();
+        while (estimatedBytes > maxMemoryBytes && iterator.hasNext()) {
+            estimatedBytes -= entryBytes(iterator.next().getKey());
+            iterator.remove();
+        }
+    }
+
+    private static long entryBytes(String key) {
+        return ENTRY_OVERHEAD_BYTES + 2L * key.length();
+    }
+
+    private int size() {
+        synchronized (expiries) {
+            return expiries.size();
+        }
+    }
+
+    private long estimatedBytes() {
+        synchronized (expiries) {
+            return estimatedBytes;
+        }
+    }
+}
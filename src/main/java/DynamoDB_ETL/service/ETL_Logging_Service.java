@@ -0,0 +1,102 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.DynamoDB_ItemSizeCalculator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Logging for the message hot path. By default only one summary line per stored item is written (id, table,
+// size, latency). Full message bodies and items go to the "DynamoDB_ETL.payload" logger for a sample of the
+// messages on each topic, and only while that logger is at DEBUG. Both can be switched at runtime:
+//   POST /actuator/loggers/DynamoDB_ETL.payload {"configuredLevel":"DEBUG"}
+//   POST /actuator/loggers/DynamoDB_ETL.service.ETL_Logging_Service {"configuredLevel":"WARN"}
+@Service
+public class ETL_Logging_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ETL_Logging_Service.class);
+    private static final Logger PAYLOAD_LOG = LoggerFactory.getLogger("DynamoDB_ETL.payload");
+
+    @Autowired
+    private Environment environment;
+
+    // 1 in N messages per topic has its payload logged when payload logging is on
+    @Value("${logging.payload.sampleRate:100}")
+    private int payloadSampleRate;
+
+    // Topics with their own logging.payload.sampleRate.<topic>, matched as substrings of the destination
+    @Value("${logging.payload.topics:}")
+    private String[] payloadTopics;
+
+    // Sample rate per destination, resolved on its first message
+    private final Map<String, Integer> sampleRates = new ConcurrentHashMap<>();
+    private final AtomicLong messagesWithoutId = new AtomicLong();
+
+    // Sampling is decided from the JMS message id, so the body and the item of one message are logged together.
+    // Messages without an id are counted instead, so they are sampled at the same rate.
+    public boolean isPayloadSampled(String destination, String jmsMessageID) {
+        if (!PAYLOAD_LOG.isDebugEnabled()) {
+            return false;
+        }
+        int sampleRate = sampleRate(destination);
+        if (sampleRate <= 1) {
+            return true;
+        }
+        long sample = jmsMessageID != null ? jmsMessageID.hashCode() : messagesWithoutId.getAndIncrement();
+        return Math.floorMod(sample, sampleRate) == 0;
+    }
+
+    private int sampleRate(String destination) {
+        if (destination == null || payloadTopics == null) {
+            return payloadSampleRate;
+        }
+        return sampleRates.computeIfAbsent(destination, d -> {
+            for (String topic : payloadTopics) {
+                if (!topic.isBlank() && d.contains(topic.trim())) {
+                    return environment.getProperty("logging.payload.sampleRate." + topic.trim(), Integer.class, payloadSampleRate);
+                }
+            }
+            return payloadSampleRate;
+        });
+    }
+
+    public void logPayload(String format, Object... arguments) {
+        PAYLOAD_LOG.debug(format, arguments);
+    }
+
+    public void logWriteResult(String tableName, Map<String, AttributeValue> item, long startNanos, Throwable e) {
+        long latencyMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        if (e != null) {
+            LOG.error("Failed to store {} in {} after {} ms: {}", itemId(item), tableName, latencyMs, e.getMessage());
+            return;
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info("Stored {} in {} ({} bytes, {} ms)",
+                    itemId(item), tableName, DynamoDB_ItemSizeCalculator.calculateItemSize(item), latencyMs);
+        }
+        if (isPayloadSampled(stringValue(item.get("messageDestination")), stringValue(item.get("messageID")))) {
+            logPayload("Item stored in {}: {}", tableName, item);
+        }
+    }
+
+    private static String itemId(Map<String, AttributeValue> item) {
+        String id = stringValue(item.get("id"));
+        if (id == null) {
+            id = stringValue(item.get("gufi"));
+        }
+        return id != null ? id : stringValue(item.get("messageID"));
+    }
+
+    private static String stringValue(AttributeValue value) {
+        return value != null ? value.s() : null;
+    }
+}
@@ -0,0 +1,193 @@
+package DynamoDB_ETL.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.RequestLimitExceededException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Micrometer meters for the consume / transform / load stages, scraped from /actuator/prometheus
+@Service
+public class ETL_Metrics_Service {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Meters are looked up once per tag value instead of being rebuilt on every message
+    private final Map<String, Counter> messageCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> converterTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> writeTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> throttleCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> lagTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> dedupCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> coalesceCounters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> priorityWaitTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> droppedCounters = new ConcurrentHashMap<>();
+    private final Map<String, Counter> deadLetterCounters = new ConcurrentHashMap<>();
+
+    public void recordMessageReceived(String destination) {
+        String tag = destination != null ? destination : "unknown";
+        messageCounters.computeIfAbsent(tag, d -> Counter.builder("etl.messages.received")
+                        .description("Messages received from the queue")
+                        .tag("destination", d)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    // Runs one of the util converters and records how long it took
+    public <T> T timeConverter(String converter, Supplier<T> conversion) {
+        long start = System.nanoTime();
+        try {
+            return conversion.get();
+        } finally {
+            converterTimers.computeIfAbsent(converter, c -> Timer.builder("etl.converter.latency")
+                            .description("Time to convert one message into a DynamoDB item")
+                            .tag("converter", c)
+                            .publishPercentileHistogram()
+                            .minimumExpectedValue(Duration.ofNanos(10_000))
+                            .maximumExpectedValue(Duration.ofSeconds(1))
+                            .register(meterRegistry))
+                    .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Called when the write future of an item completes, successfully or not
+    public void recordWrite(String tableName, Map<String, AttributeValue> item, long startNanos, Throwable e) {
+        String outcome = e == null ? "success" : "failure";
+        writeTimers.computeIfAbsent(tableName + "|" + outcome, k -> Timer.builder("etl.dynamodb.write.latency")
+                        .description("Time from handing an item to the writer until DynamoDB acknowledged or rejected it")
+                        .tag("table", tableName)
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofSeconds(30))
+                        .register(meterRegistry))
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+
+        if (e != null) {
+            if (isThrottling(e)) {
+                recordThrottle(tableName);
+            }
+            return;
+        }
+
+        // logTimestamp is the JMS timestamp of the message the item came from
+        AttributeValue logTimestamp = item.get("logTimestamp");
+        if (logTimestamp != null && logTimestamp.s() != null) {
+            recordQueueToStoreLag(tableName, logTimestamp.s());
+        }
+    }
+
+    // A throttled DynamoDB request, whether or not a retry later got the item through
+    public void recordThrottle(String tableName) {
+        throttleCounters.computeIfAbsent(tableName, t -> Counter.builder("etl.dynamodb.throttled")
+                        .description("DynamoDB requests throttled or returned with UnprocessedItems")
+                        .tag("table", t)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    private void recordQueueToStoreLag(String tableName, String logTimestamp) {
+        Instant sentAt;
+        try {
+            sentAt = Instant.parse(logTimestamp);
+        } catch (Exception e) {
+            return;
+        }
+
+        lagTimers.computeIfAbsent(tableName, t -> Timer.builder("etl.queue.to.store.lag")
+                        .description("Time from the JMS timestamp of a message until its item was stored")
+                        .tag("table", t)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofMillis(1))
+                        .maximumExpectedValue(Duration.ofMinutes(10))
+                        .register(meterRegistry))
+                .record(Duration.between(sentAt, Instant.now()));
+    }
+
+    public void recordDedupLookup(String kind, boolean duplicate) {
+        String result = duplicate ? "hit" : "miss";
+        dedupCounters.computeIfAbsent(kind + "|" + result, k -> Counter.builder("etl.dedup.lookups")
+                        .description("Dedup cache lookups; a hit is a duplicate that was skipped")
+                        .tag("kind", kind)
+                        .tag("result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    // An update folded into a last-state item still waiting to be written; superseded if it arrived after a newer one
+    public void recordCoalesced(String tableName, boolean superseded) {
+        String result = superseded ? "superseded" : "replaced";
+        coalesceCounters.computeIfAbsent(tableName + "|" + result, k -> Counter.builder("etl.coalesce.updates")
+                        .description("Last-state updates that did not cost a write of their own")
+                        .tag("table", tableName)
+                        .tag("result", result)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    // A message acknowledged without its item stored, because the write can never succeed or kept failing
+    public void recordMessageDropped(String destination, String reason) {
+        String tag = destination != null ? destination : "unknown";
+        droppedCounters.computeIfAbsent(tag + "|" + reason, k -> Counter.builder("etl.messages.dropped")
+                        .description("Messages acknowledged although their item could not be stored")
+                        .tag("destination", tag)
+                        .tag("reason", reason)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    // A spooled item the drain gave up on and moved to the dead-letter file
+    public void recordSpoolDeadLettered(String tableName, String reason) {
+        deadLetterCounters.computeIfAbsent(tableName + "|" + reason, k -> Counter.builder("etl.spool.deadlettered")
+                        .description("Spooled items moved to the dead-letter file instead of being replayed")
+                        .tag("table", tableName)
+                        .tag("reason", reason)
+                        .register(meterRegistry))
+                .increment();
+    }
+
+    // Time a received message waited in its priority lane for a worker
+    public void recordPriorityWait(String lane, long nanos) {
+        priorityWaitTimers.computeIfAbsent(lane, l -> Timer.builder("etl.priority.wait")
+                        .description("Time from receipt until a worker picked the message up")
+                        .tag("lane", l)
+                        .publishPercentileHistogram()
+                        .minimumExpectedValue(Duration.ofNanos(10_000))
+                        .maximumExpectedValue(Duration.ofMinutes(1))
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // For components that expose their own state, sampled at scrape time. Tags are key/value pairs.
+    public void gauge(String name, String description, Supplier<Number> value, String... tags) {
+        Gauge.builder(name, value)
+                .description(description)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    public static boolean isThrottling(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ProvisionedThroughputExceededException || cause instanceof RequestLimitExceededException) {
+                return true;
+            }
+            if (cause instanceof AwsServiceException && ((AwsServiceException) cause).isThrottlingException()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,76 @@
+package DynamoDB_ETL.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+// Runs the writes of the DataLoader services so that writes for one partition key (a flight's gufi, an
+// aerodrome, a report id) start in the order the loaders hand them over, each only after the previous one
+// for that key completed, while writes for other keys run in parallel. Keys are hashed onto
+// dynamodb.write.partitionLanes lanes; a lane only remembers the last write of each of its keys that is
+// still in flight, so a slow or retried write holds back later writes for the same key and nothing else.
+@Service
+public class ETL_PartitionedExecutor_Service {
+
+    @Value("${dynamodb.write.partitionLanes:64}")
+    private int laneCount;
+
+    // Queued writes are started from here rather than on the batch flush or Netty thread that completed the
+    // previous one, since starting a write may block on the rate limiter or the batch buffer
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private Lane[] lanes;
+
+    private static class Lane {
+        final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+    }
+
+    @PostConstruct
+    public void init() {
+        lanes = new Lane[Math.max(1, laneCount)];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    // Starts the write now if nothing is in flight for the key, otherwise once the previous write finished,
+    // whether or not that one succeeded. A null key is not ordered against anything.
+    public <T> CompletableFuture<T> submit(String partitionKey, Supplier<CompletableFuture<T>> write) {
+        if (partitionKey == null) {
+            return start(write);
+        }
+
+        Lane lane = lanes[Math.floorMod(partitionKey.hashCode(), lanes.length)];
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous;
+        synchronized (lane) {
+            previous = lane.tails.put(partitionKey, done);
+        }
+
+        CompletableFuture<T> result = previous == null
+                ? start(write)
+                : previous.thenComposeAsync(v -> start(write), executor);
+        result.whenComplete((v, e) -> {
+            synchronized (lane) {
+                lane.tails.remove(partitionKey, done);
+            }
+            done.complete(null);
+        });
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> start(Supplier<CompletableFuture<T>> write) {
+        try {
+            return write.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
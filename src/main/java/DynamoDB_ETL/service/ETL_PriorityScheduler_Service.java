@@ -0,0 +1,259 @@
+package DynamoDB_ETL.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Scheduling stage between the queue receivers and the loaders. Messages whose destination contains one of
+// consumer.priority.highDestinations (departures and MET reports) go to the high lane, everything else to the
+// normal lane, each a FIFO. consumer.priority.workers virtual threads take the messages from there: the first
+// consumer.priority.high.reservedWorkers only serve the high lane, the others serve both, taking
+// consumer.priority.high.weight high-lane messages for every normal-lane one while both lanes have work.
+// A flight-plan or IWXXM backlog therefore neither queues ahead of a departure nor occupies every worker.
+//
+// Messages with the same ordering key (a FIXM flight's gufi) write the same partition key, and
+// ETL_PartitionedExecutor_Service keeps the order their writes are handed over in, so whichever lane they are
+// in they are run one after the other in arrival order: a message is only taken once the earlier ones with its
+// key have returned, i.e. handed their writes over. A high-lane message takes the earlier messages with its key
+// still queued in the normal lane along into the high lane, so a departure waits for the flight plans of its
+// own flight received before it, and for nothing else.
+@Service
+public class ETL_PriorityScheduler_Service {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ETL_PriorityScheduler_Service.class);
+
+    private static final int HIGH = 0;
+    private static final int NORMAL = 1;
+    private static final String[] LANE_NAMES = {"high", "normal"};
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    // Matched like the loaders route, as substrings of the destination; empty to run everything in one FIFO
+    @Value("${consumer.priority.highDestinations:dep,met-report}")
+    private String[] highDestinations;
+
+    @Value("${consumer.priority.workers:64}")
+    private int workerCount;
+
+    @Value("${consumer.priority.high.reservedWorkers:8}")
+    private int reservedWorkers;
+
+    @Value("${consumer.priority.high.weight:4}")
+    private int highWeight;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition highAvailable = lock.newCondition();
+    private final Condition workAvailable = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<Task>[] lanes = new ArrayDeque[]{new ArrayDeque<>(), new ArrayDeque<>()};
+    // Messages per ordering key that are queued or running, in arrival order; only the first one may run
+    private final Map<String, ArrayDeque<Task>> keyed = new HashMap<>();
+    private int running;
+    // Position in the weighted round robin of the shared workers
+    private int turn;
+
+    private static class Task {
+        final Runnable runnable;
+        // null if not ordered against other messages
+        final String key;
+        int lane;
+        final long enqueued = System.nanoTime();
+
+        Task(Runnable runnable, String key, int lane) {
+            this.runnable = runnable;
+            this.key = key;
+            this.lane = lane;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        for (int i = 0; i < lanes.length; i++) {
+            int lane = i;
+            etlMetricsService.gauge("etl.priority.queued", "Messages waiting for a worker", () -> queued(lane),
+                    "lane", LANE_NAMES[lane]);
+        }
+
+        // Messages are transformed and loaded on virtual threads, so a worker blocked on DynamoDB costs no platform thread
+        int reserved = Math.min(Math.max(0, reservedWorkers), Math.max(0, workerCount - 1));
+        for (int i = 0; i < Math.max(1, workerCount); i++) {
+            boolean highOnly = i < reserved;
+            Thread.ofVirtual()
+                    .name((highOnly ? "priority-worker-high-" : "priority-worker-") + i)
+                    .start(() -> work(highOnly));
+        }
+    }
+
+    public void execute(String destination, String orderingKey, Runnable runnable) {
+        Task task = new Task(runnable, orderingKey, isHighPriority(destination) ? HIGH : NORMAL);
+        lock.lock();
+        try {
+            if (orderingKey != null) {
+                ArrayDeque<Task> earlier = keyed.computeIfAbsent(orderingKey, k -> new ArrayDeque<>());
+                if (task.lane == HIGH) {
+                    promote(earlier);
+                }
+                earlier.add(task);
+            }
+            lanes[task.lane].add(task);
+            signal(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True once no message is queued or running, false if that did not happen within the timeout
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (running > 0 || !lanes[HIGH].isEmpty() || !lanes[NORMAL].isEmpty()) {
+                if (remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = idle.awaitNanos(remainingNanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Moves earlier messages with the same key that are still queued in the normal lane to the high lane, in order
+    private void promote(ArrayDeque<Task> earlier) {
+        for (Task task : earlier) {
+            if (task.lane == NORMAL && lanes[NORMAL].remove(task)) {
+                task.lane = HIGH;
+                lanes[HIGH].add(task);
+                signal(task);
+            }
+        }
+    }
+
+    private void signal(Task task) {
+        if (task.lane == HIGH) {
+            highAvailable.signal();
+        }
+        workAvailable.signal();
+    }
+
+    private boolean isHighPriority(String destination) {
+        if (destination == null) {
+            return false;
+        }
+        for (String highDestination : highDestinations) {
+            if (!highDestination.isBlank() && destination.contains(highDestination.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void work(boolean highOnly) {
+        while (true) {
+            Task task;
+            try {
+                task = take(highOnly);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            etlMetricsService.recordPriorityWait(LANE_NAMES[task.lane], System.nanoTime() - task.enqueued);
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                LOG.error("Message processing failed: {}", e.getMessage(), e);
+            } finally {
+                lock.lock();
+                try {
+                    if (task.key != null) {
+                        release(task);
+                    }
+                    running--;
+                    if (running == 0 && lanes[HIGH].isEmpty() && lanes[NORMAL].isEmpty()) {
+                        idle.signalAll();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
+    private Task take(boolean highOnly) throws InterruptedException {
+        lock.lock();
+        try {
+            while (true) {
+                Task task = highOnly ? poll(HIGH) : pollWeighted();
+                if (task != null) {
+                    running++;
+                    return task;
+                }
+                (highOnly ? highAvailable : workAvailable).await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // highWeight turns prefer the high lane, then one the normal lane; an empty preferred lane gives its turn away
+    private Task pollWeighted() {
+        int preferred = turn < highWeight ? HIGH : NORMAL;
+        int other = preferred == HIGH ? NORMAL : HIGH;
+        Task task = poll(preferred);
+        if (task == null) {
+            task = poll(other);
+        }
+        if (task != null) {
+            turn = (turn + 1) % (Math.max(0, highWeight) + 1);
+        }
+        return task;
+    }
+
+    // First message of the lane that may run: unordered, or the oldest one left with its key
+    private Task poll(int lane) {
+        Iterator<Task> tasks = lanes[lane].iterator();
+        while (tasks.hasNext()) {
+            Task task = tasks.next();
+            if (task.key == null || keyed.get(task.key).peekFirst() == task) {
+                tasks.remove();
+                return task;
+            }
+        }
+        return null;
+    }
+
+    // The next message with the key, if any, may run now
+    private void release(Task task) {
+        ArrayDeque<Task> tasks = keyed.get(task.key);
+        tasks.pollFirst();
+        if (tasks.isEmpty()) {
+            keyed.remove(task.key);
+        } else {
+            signal(tasks.peekFirst());
+        }
+    }
+
+    private int queued(int lane) {
+        lock.lock();
+        try {
+            return lanes[lane].size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
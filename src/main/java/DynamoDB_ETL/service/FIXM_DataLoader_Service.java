@@ -2,144 +2,211 @@ package DynamoDB_ETL.service;
 
 import DynamoDB_ETL.util.FIXM_Dep_DataConverter;
 import DynamoDB_ETL.util.FIXM_Fpl_DataConverter;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 
+import java.io.ByteArrayInputStream;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 @Service
 public class FIXM_DataLoader_Service {
 
+    private static final Logger LOG = LoggerFactory.getLogger(FIXM_DataLoader_Service.class);
+
     @Autowired
     private DynamoDbClient dynamoDbClient;
 
+    @Autowired
+    private DynamoDB_Writer_Service dynamoDBWriterService;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
+    @Autowired
+    private ETL_Logging_Service etlLoggingService;
+
+    @Autowired
+    private ETL_Dedup_Service etlDedupService;
+
+    @Autowired
+    private ETL_PartitionedExecutor_Service etlPartitionedExecutorService;
+
+    @Autowired
+    private DynamoDB_Coalescing_Service dynamoDBCoalescingService;
+
+    // dom: original DocumentBuilder converters, stax: single-pass converters driven by the compiled field
+    // mappings, with the same output. fixm.fpl.parser is the older name, when only fpl had the stax variant.
+    @Value("${fixm.parser:${fixm.fpl.parser:dom}}")
+    private String parser;
+
+    // Optional table with the latest flight plan per gufi, written through the coalescing window; empty to disable
+    @Value("${fixm.latestState.table:}")
+    private String latestStateTable;
+
+    // put: every departure is stored as its own item in FIXM_FlightData, merge: departures are merged into the
+    // flight's item in fixm.latestState.table with UpdateItem instead
+    @Value("${fixm.dep.writeMode:put}")
+    private String depWriteMode;
+
     @PostConstruct
     public void init() {
         if (dynamoDbClient != null) {
-            System.out.println("DynamoDbClient initialized successfully.");
+            LOG.info("DynamoDbClient initialized successfully.");
         } else {
-            System.err.println("Failed to initialize DynamoDbClient.");
+            LOG.error("Failed to initialize DynamoDbClient.");
+        }
+        if ("merge".equalsIgnoreCase(depWriteMode) && latestStateTable.isEmpty()) {
+            LOG.warn("fixm.dep.writeMode=merge needs fixm.latestState.table; departures are stored as items instead.");
         }
     }
 
-    public void processMessageContent(String xmlContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
-        String jsonStr = null;
+    private boolean mergeDepartures() {
+        return "merge".equalsIgnoreCase(depWriteMode) && !latestStateTable.isEmpty();
+    }
 
-        if (jmsDestination.contains("dep")) {
-            jsonStr = FIXM_Dep_DataConverter.convertFIXMDepXmlToJson(xmlContent);
-        } else if (jmsDestination.contains("fpl")) {
-            jsonStr = FIXM_Fpl_DataConverter.convertFIXMFplXmlToJson(xmlContent);
-        }
+    // Completes once the item is stored, or straight away if the message is skipped or cannot be converted.
+    // Completes exceptionally only if the write failed, in which case the message should be redelivered.
+    public CompletableFuture<Void> processMessageContent(String xmlContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
+        boolean stax = "stax".equalsIgnoreCase(parser);
+        Map<String, AttributeValue> metadata = metadata(logTimestamp, jmsMessageID, jmsDestination);
+        return processMessageContent(ETL_Dedup_Service.messageKey(jmsMessageID, xmlContent),
+                () -> stax
+                        ? FIXM_Dep_DataConverter.convertFIXMDepXmlToItemStax(xmlContent, metadata)
+                        : FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(xmlContent, metadata),
+                () -> stax
+                        ? FIXM_Fpl_DataConverter.convertFIXMFplXmlToItemStax(xmlContent, metadata)
+                        : FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(xmlContent, metadata),
+                logTimestamp, jmsMessageID, jmsDestination);
+    }
 
-        if (jsonStr != null) {
-            processFIXMAndStoreInDynamoDB(jsonStr, logTimestamp, jmsMessageID, jmsDestination);
-        } else {
-            System.out.println("XML structure not recognized.");
+    // Same for a BytesMessage body in content[0, length), parsed from the bytes as they are. content is only
+    // read before this returns, so the caller may reuse it afterwards.
+    public CompletableFuture<Void> processMessageContent(byte[] content, int length, String logTimestamp, String jmsMessageID, String jmsDestination) {
+        boolean stax = "stax".equalsIgnoreCase(parser);
+        Map<String, AttributeValue> metadata = metadata(logTimestamp, jmsMessageID, jmsDestination);
+        return processMessageContent(ETL_Dedup_Service.messageKey(jmsMessageID, content, length),
+                () -> stax
+                        ? FIXM_Dep_DataConverter.convertFIXMDepXmlToItemStax(new ByteArrayInputStream(content, 0, length), metadata)
+                        : FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(new ByteArrayInputStream(content, 0, length), metadata),
+                () -> stax
+                        ? FIXM_Fpl_DataConverter.convertFIXMFplXmlToItemStax(new ByteArrayInputStream(content, 0, length), metadata)
+                        : FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(new ByteArrayInputStream(content, 0, length), metadata),
+                logTimestamp, jmsMessageID, jmsDestination);
+    }
+
+    // Stored with every item; the converters start the item from it
+    private static Map<String, AttributeValue> metadata(String logTimestamp, String messageID, String messageDestination) {
+        Map<String, AttributeValue> metadata = new HashMap<>(4);
+        if (logTimestamp != null) {
+            metadata.put("logTimestamp", AttributeValue.builder().s(logTimestamp).build());
+        }
+        if (messageID != null) {
+            metadata.put("messageID", AttributeValue.builder().s(messageID).build());
+        }
+        if (messageDestination != null) {
+            metadata.put("messageDestination", AttributeValue.builder().s(messageDestination).build());
         }
+        return metadata;
     }
 
-    private void processFIXMAndStoreInDynamoDB(String jsonStr, String logTimestamp, String messageID, String messageDestination) {
-        if (jsonStr != null) {
-            try {
-                ObjectMapper objectMapper = new ObjectMapper();
-                JsonNode jsonNode = objectMapper.readTree(jsonStr);
-
-                if (jsonNode instanceof ObjectNode) {
-                    if (logTimestamp != null) {
-                        ((ObjectNode) jsonNode).put("logTimestamp", logTimestamp);
-                    }
-                    if (messageID != null) {
-                        ((ObjectNode) jsonNode).put("messageID", messageID);
-                    }
-                    if (messageDestination != null) {
-                        ((ObjectNode) jsonNode).put("messageDestination", messageDestination);
-                    }
-                }
-
-                String originatorChecker = jsonNode.has("gufiOriginator") ? jsonNode.get("gufiOriginator").asText() : null;
-
-                if ("CAAS".equals(originatorChecker)) {
-
-                    Map<String, AttributeValue> item = convertJsonNodeToAttributeValue(jsonNode);
-
-                    PutItemRequest putItemRequest = PutItemRequest.builder()
-                            .tableName("FIXM_FlightData")
-                            .item(item)
-                            .build();
-                    dynamoDbClient.putItem(putItemRequest);
-
-                    System.out.printf("Item successfully inserted: %s%n", item);
-                    System.out.println();
-
-                } else if ("simulator".equals(originatorChecker)) {
-
-                    Map<String, AttributeValue> item = convertJsonNodeToAttributeValue(jsonNode);
-
-                    PutItemRequest putItemRequest = PutItemRequest.builder()
-                            .tableName("FIXM_SimulatorData")
-                            .item(item)
-                            .build();
-                    dynamoDbClient.putItem(putItemRequest);
-
-                    System.out.println("Simulator entry detected.");
-                    System.out.printf("Item successfully inserted: %s%n", item);
-                    System.out.println();
-                }
-
-            } catch (Exception e) {
-                System.err.println("Failed to process JSON and store in DynamoDB: " + e.getMessage());
-                e.printStackTrace();
-            }
-        } else {
-            System.err.println("Failed to convert XML to JSON");
+    // Only the converter matching the destination is run
+    private CompletableFuture<Void> processMessageContent(String messageKey, Supplier<Map<String, AttributeValue>> depConverter,
+                                                          Supplier<Map<String, AttributeValue>> fplConverter,
+                                                          String logTimestamp, String jmsMessageID, String jmsDestination) {
+        if (!etlDedupService.claim(messageKey)) {
+            LOG.debug("Duplicate message {} on {} skipped.", jmsMessageID, jmsDestination);
+            return CompletableFuture.completedFuture(null);
         }
 
-    }
+        Map<String, AttributeValue> item = null;
+        try {
+            if (jmsDestination.contains("dep")) {
+                item = etlMetricsService.timeConverter("FIXM_Dep_DataConverter", depConverter);
+            } else if (jmsDestination.contains("fpl")) {
+                item = etlMetricsService.timeConverter("FIXM_Fpl_DataConverter", fplConverter);
+            }
+        } catch (Exception e) {
+            // A message the converters fail on would fail the same way when redelivered
+            etlDedupService.release(messageKey);
+            LOG.error("Failed to convert message {} on {}: {}", jmsMessageID, jmsDestination, e.getMessage(), e);
+            return CompletableFuture.completedFuture(null);
+        }
 
-    private Map<String, AttributeValue> convertJsonNodeToAttributeValue(JsonNode jsonNode) {
-        Map<String, AttributeValue> attributeValueMap = new HashMap<>();
-
-        if (jsonNode.isObject()) {
-            jsonNode.fields().forEachRemaining(entry -> {
-                String key = entry.getKey();
-                JsonNode value = entry.getValue();
-
-                if (value.isObject()) {
-                    attributeValueMap.put(key, AttributeValue.builder().m(convertJsonNodeToAttributeValue(value)).build());
-                } else if (value.isArray()) {
-                    attributeValueMap.put(key, AttributeValue.builder().l(convertJsonArrayToAttributeValueList(value)).build());
-                } else {
-                    attributeValueMap.put(key, AttributeValue.builder().s(value.asText()).build());
-                }
-            });
+        if (item != null) {
+            return processFIXMAndStoreInDynamoDB(item, logTimestamp, jmsMessageID, jmsDestination, messageKey);
         }
 
-        return attributeValueMap;
+        etlDedupService.release(messageKey);
+        LOG.warn("XML structure not recognized for message {} on {}.", jmsMessageID, jmsDestination);
+        return CompletableFuture.completedFuture(null);
     }
 
-    private List<AttributeValue> convertJsonArrayToAttributeValueList(JsonNode jsonArray) {
-        List<AttributeValue> attributeValueList = new java.util.ArrayList<>();
-
-        for (JsonNode jsonNode : jsonArray) {
-            if (jsonNode.isObject()) {
-                attributeValueList.add(AttributeValue.builder().m(convertJsonNodeToAttributeValue(jsonNode)).build());
-            } else if (jsonNode.isArray()) {
-                attributeValueList.add(AttributeValue.builder().l(convertJsonArrayToAttributeValueList(jsonNode)).build());
+    private CompletableFuture<Void> processFIXMAndStoreInDynamoDB(Map<String, AttributeValue> item, String logTimestamp, String messageID, String messageDestination, String messageKey) {
+        String itemKey = null;
+        try {
+            AttributeValue originator = item.get("gufiOriginator");
+            String originatorChecker = originator != null ? originator.s() : null;
+
+            String tableName;
+            if ("CAAS".equals(originatorChecker)) {
+                tableName = "FIXM_FlightData";
+            } else if ("simulator".equals(originatorChecker)) {
+                LOG.debug("Simulator entry detected.");
+                tableName = "FIXM_SimulatorData";
             } else {
-                attributeValueList.add(AttributeValue.builder().s(jsonNode.asText()).build());
+                return CompletableFuture.completedFuture(null);
             }
-        }
 
-        return attributeValueList;
+            // The same flight update republished under another message id
+            AttributeValue gufi = item.get("gufi");
+            itemKey = ETL_Dedup_Service.itemKey("FIXM", gufi != null ? gufi.s() : null, logTimestamp);
+            if (!etlDedupService.claim(itemKey)) {
+                LOG.debug("Duplicate FIXM item {} from message {} skipped.", itemKey, messageID);
+                return CompletableFuture.completedFuture(null);
+            }
+
+            // Flight plans carry the full state of the flight; departure messages only a few fields. Best-effort and
+            // not part of the returned future, see DynamoDB_Coalescing_Service.
+            if (!latestStateTable.isEmpty() && gufi != null && "FIXM_FlightData".equals(tableName)
+                    && messageDestination.contains("fpl")) {
+                dynamoDBCoalescingService.offer(latestStateTable, "gufi", logTimestamp, item);
+            }
+
+            // In merge mode a departure only updates its fields on the flight's latest-state item
+            boolean merge = mergeDepartures() && gufi != null && "FIXM_FlightData".equals(tableName)
+                    && messageDestination.contains("dep");
+            String targetTable = merge ? latestStateTable : tableName;
+            if (merge) {
+                // A flight plan held for the flight is older than this departure and must not be written after it
+                dynamoDBCoalescingService.flush(latestStateTable, gufi.s());
+            }
+
+            String claimedItemKey = itemKey;
+            long start = System.nanoTime();
+            // Keeps the fpl and dep updates of one flight in order
+            return etlPartitionedExecutorService.submit(gufi != null ? gufi.s() : null, () -> merge
+                            ? dynamoDBWriterService.updateItem(targetTable, "gufi", item)
+                            : dynamoDBWriterService.putItem(targetTable, item))
+                    .whenComplete((v, e) -> {
+                        etlLoggingService.logWriteResult(targetTable, item, start, e);
+                        if (e != null) {
+                            etlDedupService.release(messageKey, claimedItemKey);
+                        }
+                    });
+
+        } catch (Exception e) {
+            etlDedupService.release(messageKey, itemKey);
+            LOG.error("Failed to store FIXM item in DynamoDB: {}", e.getMessage(), e);
+            return CompletableFuture.completedFuture(null);
+        }
     }
 }
@@ -3,120 +3,137 @@ package DynamoDB_ETL.service;
 import DynamoDB_ETL.util.IWXXM_DataConverter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class IWXXM_DataLoader_Service {
 
+    private static final Logger LOG = LoggerFactory.getLogger(IWXXM_DataLoader_Service.class);
+
+    // The envelope is parsed once here; the converter only sees the Base64 payload
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     @Autowired
-    private DynamoDbClient dynamoDbClient;
+    private DynamoDB_Writer_Service dynamoDBWriterService;
 
-    public void processMessageContent(String xmlContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
-        try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode jsonNode = objectMapper.readTree(xmlContent);
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
 
-            String id = null;
-            if (jsonNode.has("id")) {
-                id = jsonNode.get("id").asText();  // Extract the ID from the original JSON
-            } else {
-                System.out.println("ID not found in the message content.");
-                return;
-            }
+    @Autowired
+    private ETL_Logging_Service etlLoggingService;
 
-            String jsonStr = IWXXM_DataConverter.convertIWXXMXmlToJson(xmlContent, id, logTimestamp);
+    @Autowired
+    private ETL_Dedup_Service etlDedupService;
 
-            if (jsonStr != null) {
-                processIWXXMAndStoreInDynamoDB(jsonStr, logTimestamp, id, jmsMessageID, jmsDestination);
-            } else {
-                System.out.println("Failed to convert XML to JSON.");
-            }
+    @Autowired
+    private ETL_PartitionedExecutor_Service etlPartitionedExecutorService;
 
-        } catch (Exception e) {
-            System.err.println("Failed to process the message content: " + e.getMessage());
-            e.printStackTrace();
-        }
+    // map: decodedData stored as nested M/L/S attributes, compressed: header fields plus gzip-compressed decodedData
+    @Value("${iwxxm.decodedData.storage:map}")
+    private String decodedDataStorage;
+
+    // Completes once the item is stored, or straight away if the message is skipped or cannot be converted.
+    // Completes exceptionally only if the write failed, in which case the message should be redelivered.
+    public CompletableFuture<Void> processMessageContent(String xmlContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
+        return processMessageContent(ETL_Dedup_Service.messageKey(jmsMessageID, xmlContent),
+                () -> OBJECT_MAPPER.readTree(xmlContent), logTimestamp, jmsMessageID, jmsDestination);
     }
 
-    private void processIWXXMAndStoreInDynamoDB(String jsonStr, String logTimestamp, String id, String messageID, String messageDestination) {
+    // BytesMessage body in content[0, length), read by Jackson straight from the bytes. The envelope is fully
+    // parsed before this returns, so content can be reused afterwards.
+    public CompletableFuture<Void> processMessageContent(byte[] content, int length, String logTimestamp, String jmsMessageID, String jmsDestination) {
+        return processMessageContent(ETL_Dedup_Service.messageKey(jmsMessageID, content, length),
+                () -> OBJECT_MAPPER.readTree(content, 0, length), logTimestamp, jmsMessageID, jmsDestination);
+    }
+
+    private CompletableFuture<Void> processMessageContent(String messageKey, Callable<JsonNode> parser,
+                                                          String logTimestamp, String jmsMessageID, String jmsDestination) {
+        if (!etlDedupService.claim(messageKey)) {
+            LOG.debug("Duplicate message {} on {} skipped.", jmsMessageID, jmsDestination);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String itemKey = null;
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode jsonNode = objectMapper.readTree(jsonStr);
-
-            if (jsonNode instanceof ObjectNode) {
-                ObjectNode objectNode = (ObjectNode) jsonNode;
-
-                if (logTimestamp != null) {
-                    objectNode.put("logTimestamp", logTimestamp);
-                }
-                if (messageID != null) {
-                    objectNode.put("messageID", messageID);
-                }
-                if (messageDestination != null) {
-                    objectNode.put("messageDestination", messageDestination);
-                }
+            JsonNode jsonNode = parser.call();
+
+            if (!jsonNode.has("id")) {
+                etlDedupService.release(messageKey);
+                LOG.warn("ID not found in the content of message {}.", jmsMessageID);
+                return CompletableFuture.completedFuture(null);
             }
+            String id = jsonNode.get("id").asText();  // Extract the ID from the original JSON
 
-            Map<String, AttributeValue> item = convertJsonNodeToAttributeValue(jsonNode);
+            // The same report republished under another message id; skipped before it is decoded
+            itemKey = ETL_Dedup_Service.itemKey("IWXXM", id);
+            if (!etlDedupService.claim(itemKey)) {
+                LOG.debug("Duplicate IWXXM report {} from message {} skipped.", id, jmsMessageID);
+                return CompletableFuture.completedFuture(null);
+            }
 
-            PutItemRequest putItemRequest = PutItemRequest.builder()
-                    .tableName("IWXXM_FlightData")
-                    .item(item)
-                    .build();
-            dynamoDbClient.putItem(putItemRequest);
+            String base64Content = jsonNode.path("properties").path("content").path("value").textValue();
+            if (base64Content == null) {
+                etlDedupService.release(messageKey, itemKey);
+                LOG.warn("Base64 content not found in the content of message {}.", jmsMessageID);
+                return CompletableFuture.completedFuture(null);
+            }
 
-            System.out.printf("Item successfully inserted: %s%n", item);
-            System.out.println();
+            Map<String, AttributeValue> item = etlMetricsService.timeConverter("IWXXM_DataConverter",
+                    () -> "compressed".equalsIgnoreCase(decodedDataStorage)
+                            ? IWXXM_DataConverter.convertIWXXMBase64ToCompressedItem(base64Content, id, logTimestamp)
+                            : IWXXM_DataConverter.convertIWXXMBase64ToItem(base64Content, id, logTimestamp));
+
+            if (item != null) {
+                return processIWXXMAndStoreInDynamoDB(item, logTimestamp, jmsMessageID, jmsDestination, messageKey, itemKey);
+            } else {
+                etlDedupService.release(messageKey, itemKey);
+                LOG.warn("Failed to convert XML to JSON for message {}.", jmsMessageID);
+            }
 
         } catch (Exception e) {
-            System.err.println("Failed to process IWXXM JSON and store in DynamoDB: " + e.getMessage());
-            e.printStackTrace();
+            etlDedupService.release(messageKey, itemKey);
+            LOG.error("Failed to process the message content: {}", e.getMessage(), e);
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    private Map<String, AttributeValue> convertJsonNodeToAttributeValue(JsonNode jsonNode) {
-        Map<String, AttributeValue> attributeValueMap = new HashMap<>();
-
-        if (jsonNode.isObject()) {
-            jsonNode.fields().forEachRemaining(entry -> {
-                String key = entry.getKey();
-                JsonNode value = entry.getValue();
-
-                if (value.isObject()) {
-                    attributeValueMap.put(key, AttributeValue.builder().m(convertJsonNodeToAttributeValue(value)).build());
-                } else if (value.isArray()) {
-                    attributeValueMap.put(key, AttributeValue.builder().l(convertJsonArrayToAttributeValueList(value)).build());
-                } else {
-                    attributeValueMap.put(key, AttributeValue.builder().s(value.asText()).build());
-                }
-            });
-        }
-
-        return attributeValueMap;
-    }
+    private CompletableFuture<Void> processIWXXMAndStoreInDynamoDB(Map<String, AttributeValue> item, String logTimestamp, String messageID, String messageDestination,
+                                                                   String messageKey, String itemKey) {
+        try {
+            if (logTimestamp != null) {
+                item.put("logTimestamp", AttributeValue.builder().s(logTimestamp).build());
+            }
+            if (messageID != null) {
+                item.put("messageID", AttributeValue.builder().s(messageID).build());
+            }
+            if (messageDestination != null) {
+                item.put("messageDestination", AttributeValue.builder().s(messageDestination).build());
+            }
 
-    private List<AttributeValue> convertJsonArrayToAttributeValueList(JsonNode jsonArray) {
-        List<AttributeValue> attributeValueList = new java.util.ArrayList<>();
+            long start = System.nanoTime();
+            AttributeValue id = item.get("id");
+            return etlPartitionedExecutorService.submit(id != null ? id.s() : null,
+                            () -> dynamoDBWriterService.putItem("IWXXM_FlightData", item))
+                    .whenComplete((v, e) -> {
+                        etlLoggingService.logWriteResult("IWXXM_FlightData", item, start, e);
+                        if (e != null) {
+                            etlDedupService.release(messageKey, itemKey);
+                        }
+                    });
 
-        for (JsonNode jsonNode : jsonArray) {
-            if (jsonNode.isObject()) {
-                attributeValueList.add(AttributeValue.builder().m(convertJsonNodeToAttributeValue(jsonNode)).build());
-            } else if (jsonNode.isArray()) {
-                attributeValueList.add(AttributeValue.builder().l(convertJsonArrayToAttributeValueList(jsonNode)).build());
-            } else {
-                attributeValueList.add(AttributeValue.builder().s(jsonNode.asText()).build());
-            }
+        } catch (Exception e) {
+            etlDedupService.release(messageKey, itemKey);
+            LOG.error("Failed to store IWXXM item in DynamoDB: {}", e.getMessage(), e);
+            return CompletableFuture.completedFuture(null);
         }
-
-        return attributeValueList;
     }
 }
@@ -3,16 +3,15 @@ package DynamoDB_ETL.service;
 import DynamoDB_ETL.util.METReport_DataConverter;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
-import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
 
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
@@ -23,43 +22,88 @@ import java.time.format.DateTimeFormatter;
 @Service
 public class METReport_DataLoader_Service {
 
+    private static final Logger LOG = LoggerFactory.getLogger(METReport_DataLoader_Service.class);
+
+    // Thread-safe once configured, so one instance serves every message
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    @Autowired
+    private DynamoDB_Writer_Service dynamoDBWriterService;
+
+    @Autowired
+    private ETL_Metrics_Service etlMetricsService;
+
     @Autowired
-    private DynamoDbClient dynamoDbClient;
+    private ETL_Logging_Service etlLoggingService;
+
+    @Autowired
+    private ETL_Dedup_Service etlDedupService;
+
+    @Autowired
+    private ETL_PartitionedExecutor_Service etlPartitionedExecutorService;
+
+    // Completes once the item is stored, or straight away if the message is skipped or cannot be converted.
+    // Completes exceptionally only if the write failed, in which case the message should be redelivered.
+    public CompletableFuture<Void> processMessageContent(String jsonContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
+        return processMessageContent(ETL_Dedup_Service.messageKey(jmsMessageID, jsonContent),
+                () -> OBJECT_MAPPER.readTree(jsonContent), logTimestamp, jmsMessageID, jmsDestination);
+    }
 
-    public void processMessageContent(String jsonContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
+    // For a BytesMessage body; content[0, length) is not looked at again once this returns
+    public CompletableFuture<Void> processMessageContent(byte[] content, int length, String logTimestamp, String jmsMessageID, String jmsDestination) {
+        return processMessageContent(ETL_Dedup_Service.messageKey(jmsMessageID, content, length),
+                () -> OBJECT_MAPPER.readTree(content, 0, length), logTimestamp, jmsMessageID, jmsDestination);
+    }
+
+    private CompletableFuture<Void> processMessageContent(String messageKey, Callable<JsonNode> parser,
+                                                          String logTimestamp, String jmsMessageID, String jmsDestination) {
+        if (!etlDedupService.claim(messageKey)) {
+            LOG.debug("Duplicate message {} on {} skipped.", jmsMessageID, jmsDestination);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        String itemKey = null;
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode rootNode = objectMapper.readTree(jsonContent);
+            JsonNode rootNode = parser.call();
 
             String id = rootNode.path("id").asText();
+
+            // The same report republished under another message id; skipped before it is parsed
+            itemKey = ETL_Dedup_Service.itemKey("METReport", id);
+            if (!etlDedupService.claim(itemKey)) {
+                LOG.debug("Duplicate MET report {} from message {} skipped.", id, jmsMessageID);
+                return CompletableFuture.completedFuture(null);
+            }
+
             String metarData = rootNode.path("properties").path("content").path("value").asText();
 
-            String jsonStr = METReport_DataConverter.convertMETDataToJson(id, metarData);
+            Map<String, AttributeValue> item = etlMetricsService.timeConverter("METReport_DataConverter",
+                    () -> METReport_DataConverter.convertMETDataToItem(id, metarData));
 
-            if (jsonStr != null) {
-                processMETReportAndStoreInDynamoDB(jsonStr, logTimestamp, jmsMessageID, jmsDestination);
+            if (item != null) {
+                return processMETReportAndStoreInDynamoDB(item, logTimestamp, jmsMessageID, jmsDestination, messageKey, itemKey);
             } else {
-                System.out.println("METAR data structure not recognized.");
+                etlDedupService.release(messageKey, itemKey);
+                LOG.warn("METAR data structure not recognized for message {}.", jmsMessageID);
             }
 
         } catch (Exception e) {
-            System.err.println("Failed to process message content: " + e.getMessage());
-            e.printStackTrace();
+            etlDedupService.release(messageKey, itemKey);
+            LOG.error("Failed to process message content: {}", e.getMessage(), e);
         }
+        return CompletableFuture.completedFuture(null);
     }
 
-    private void processMETReportAndStoreInDynamoDB(String jsonStr, String logTimestamp, String messageID, String messageDestination) {
+    private CompletableFuture<Void> processMETReportAndStoreInDynamoDB(Map<String, AttributeValue> item, String logTimestamp, String messageID, String messageDestination,
+                                                                       String messageKey, String itemKey) {
         try {
-            ObjectMapper objectMapper = new ObjectMapper();
-            JsonNode jsonNode = objectMapper.readTree(jsonStr);
-
-            if (!jsonNode.has("id")) {
+            if (!item.containsKey("id")) {
                 throw new RuntimeException("Missing required fields: id");
             }
 
             String datePart = logTimestamp.substring(0, 10);  // Extract date from logTimestamp (e.g., 2024-10-18)
 
-            String dateTime = jsonNode.has("dateTime") ? jsonNode.get("dateTime").asText() : null;
+            String dateTime = item.containsKey("dateTime") ? item.get("dateTime").s() : null;
 
             String refinedDateTime = null;
             if (dateTime != null && dateTime.length() == 6) {
@@ -94,76 +138,39 @@ public class METReport_DataLoader_Service {
                 refinedDateTime = logTimestamp;
             }
 
-            // Add refinedDateTime, messageID, and messageDestination to the JSON
-            if (jsonNode instanceof ObjectNode) {
-                ObjectNode objectNode = (ObjectNode) jsonNode;
-                if (refinedDateTime != null) {
-                    objectNode.put("dateTime", refinedDateTime);
-                }
-                if (messageID != null) {
-                    objectNode.put("messageID", messageID);
-                }
-                if (messageDestination != null) {
-                    objectNode.put("messageDestination", messageDestination);
-                }
-                if (logTimestamp != null) {
-                    objectNode.put("logTimestamp", logTimestamp);
-                }
+            // Add refinedDateTime, messageID, and messageDestination to the item
+            if (refinedDateTime != null) {
+                item.put("dateTime", AttributeValue.builder().s(refinedDateTime).build());
             }
-
-            // Convert the JSON to DynamoDB attribute values
-            Map<String, AttributeValue> item = convertJsonNodeToAttributeValue(jsonNode);
-
-            PutItemRequest putItemRequest = PutItemRequest.builder()
-                    .tableName("METReport_FlightData")
-                    .item(item)
-                    .build();
-
-            System.out.println("Final JSON to insert: " + jsonNode);
-            dynamoDbClient.putItem(putItemRequest);
-
-            System.out.printf("Item successfully inserted: %s%n", item);
-            System.out.println();
-
-        } catch (Exception e) {
-            System.err.println("Failed to process JSON and store in DynamoDB: " + e.getMessage());
-            e.printStackTrace();
-        }
-    }
-
-
-    private Map<String, AttributeValue> convertJsonNodeToAttributeValue(JsonNode jsonNode) {
-        Map<String, AttributeValue> attributeValueMap = new HashMap<>();
-
-        jsonNode.fields().forEachRemaining(entry -> {
-            String key = entry.getKey();
-            JsonNode value = entry.getValue();
-
-            if (value.isObject()) {
-                attributeValueMap.put(key, AttributeValue.builder().m(convertJsonNodeToAttributeValue(value)).build());
-            } else if (value.isArray()) {
-                attributeValueMap.put(key, AttributeValue.builder().l(convertJsonArrayToAttributeValueList(value)).build());
-            } else {
-                attributeValueMap.put(key, AttributeValue.builder().s(value.asText()).build());
+            if (messageID != null) {
+                item.put("messageID", AttributeValue.builder().s(messageID).build());
+            }
+            if (messageDestination != null) {
+                item.put("messageDestination", AttributeValue.builder().s(messageDestination).build());
+            }
+            if (logTimestamp != null) {
+                item.put("logTimestamp", AttributeValue.builder().s(logTimestamp).build());
             }
-        });
-
-        return attributeValueMap;
-    }
-
-    private List<AttributeValue> convertJsonArrayToAttributeValueList(JsonNode jsonArray) {
-        List<AttributeValue> attributeValueList = new java.util.ArrayList<>();
 
-        for (JsonNode jsonNode : jsonArray) {
-            if (jsonNode.isObject()) {
-                attributeValueList.add(AttributeValue.builder().m(convertJsonNodeToAttributeValue(jsonNode)).build());
-            } else if (jsonNode.isArray()) {
-                attributeValueList.add(AttributeValue.builder().l(convertJsonArrayToAttributeValueList(jsonNode)).build());
-            } else {
-                attributeValueList.add(AttributeValue.builder().s(jsonNode.asText()).build());
+            if (etlLoggingService.isPayloadSampled(messageDestination, messageID)) {
+                etlLoggingService.logPayload("Final item to insert: {}", item);
             }
-        }
+            long start = System.nanoTime();
+            // Keeps the reports of one aerodrome in order
+            AttributeValue aerodrome = item.get("aerodrome");
+            return etlPartitionedExecutorService.submit(aerodrome != null ? aerodrome.s() : item.get("id").s(),
+                            () -> dynamoDBWriterService.putItem("METReport_FlightData", item))
+                    .whenComplete((v, e) -> {
+                        etlLoggingService.logWriteResult("METReport_FlightData", item, start, e);
+                        if (e != null) {
+                            etlDedupService.release(messageKey, itemKey);
+                        }
+                    });
 
-        return attributeValueList;
+        } catch (Exception e) {
+            etlDedupService.release(messageKey, itemKey);
+            LOG.error("Failed to process JSON and store in DynamoDB: {}", e.getMessage(), e);
+            return CompletableFuture.completedFuture(null);
+        }
     }
 }
@@ -1,24 +1,52 @@
 package DynamoDB_ETL.service;
 
+import DynamoDB_ETL.util.FIXM_GufiScanner;
+import DynamoDB_ETL.util.JMS_BodyBufferPool;
 import org.apache.qpid.jms.JmsConnectionFactory;
-import org.apache.qpid.jms.message.JmsBytesMessage;
+import org.apache.qpid.jms.policy.JmsDefaultPrefetchPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Service;
 
-import javax.annotation.PostConstruct;
 import javax.jms.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Enumeration;
-
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+// Started once the application context is up, on a thread of its own, so connecting to Solace does not hold up
+// startup. As a SmartLifecycle in the last phase it is also the first thing stopped on shutdown: receiving
+// stops, the messages already received are written within consumer.shutdownTimeoutMs and only then are the
+// connections closed.
 @Service
 @PropertySource("classpath:solace.properties")
-public class Main_QueueConsumer_Service {
+public class Main_QueueConsumer_Service implements SmartLifecycle {
+
+    private static final Logger LOG = LoggerFactory.getLogger(Main_QueueConsumer_Service.class);
+
+    // Consumed when consumer.queues is empty
+    private static final String DEFAULT_QUEUE_NAME = "q/sirms-prototype";
 
-    private final String QUEUE_NAME = "q/sirms-prototype";
+    // How long a receiver waits for a message before it checks whether the consumer is stopping
+    private static final long RECEIVE_POLL_MS = 500;
 
     @Value("${solace.host}")
     private String solaceHost;
@@ -29,75 +57,549 @@ public class Main_QueueConsumer_Service {
     @Value("${solace.password}")
     private String solacePassword;
 
+    // Ids of the queues to consume, each set up under consumer.queue.<id>.* and received on its own connection;
+    // empty for DEFAULT_QUEUE_NAME alone
+    @Value("${consumer.queues:}")
+    private String[] queueIds;
+
+    // Number of JMSContexts (sessions) receiving from a queue in parallel. This, maxInFlight and prefetch are
+    // defaults for the queues that do not set their own.
+    @Value("${consumer.concurrency:1}")
+    private int consumerConcurrency;
+
+    // Upper bound on messages of one queue being transformed/loaded at the same time across its receivers, counted
+    // until their items are stored
+    @Value("${consumer.maxInFlight:64}")
+    private int consumerMaxInFlight;
+
+    // Messages the broker may push to each consumer ahead of receive(); -1 keeps the client default (1000)
+    @Value("${consumer.prefetch:-1}")
+    private int consumerPrefetch;
+
+    // client: messages are acknowledged in groups once all their items are written, auto: on receipt
+    @Value("${consumer.acknowledgeMode:client}")
+    private String acknowledgeMode;
+
+    // A group closes at this many messages or after this long, whichever comes first
+    @Value("${consumer.ackBatchSize:100}")
+    private int ackBatchSize;
+
+    @Value("${consumer.ackBatchMaxWaitMs:100}")
+    private long ackBatchMaxWaitMs;
+
+    // A group whose writes take longer is logged every ackTimeoutMs; it is only acknowledged or recovered once all
+    // of them settled, since its messages keep their dedup claims while a write is pending
+    @Value("${consumer.ackTimeoutMs:60000}")
+    private long ackTimeoutMs;
+
+    // A message whose write still fails on this delivery is dropped instead of redelivered again (0: no limit)
+    @Value("${consumer.maxDeliveries:10}")
+    private int maxDeliveries;
+
+    // A queue that cannot be connected is retried after this, doubling up to connectRetryMaxMs
+    @Value("${consumer.connectRetryInitialMs:1000}")
+    private long connectRetryInitialMs;
+
+    @Value("${consumer.connectRetryMaxMs:60000}")
+    private long connectRetryMaxMs;
+
+    // Time stop() has to let received messages finish and write what is held back before closing the connections
+    @Value("${consumer.shutdownTimeoutMs:20000}")
+    private long shutdownTimeoutMs;
+
+    private List<QueueConsumer> queues;
+    private Thread starter;
+    private volatile boolean running;
+
+    // Messages handed to a worker whose items are not stored yet
+    private final Set<CompletableFuture<Void>> pendingMessages = ConcurrentHashMap.newKeySet();
+
     private final FIXM_DataLoader_Service FIXM_DataLoader_Service;
     private final IWXXM_DataLoader_Service IWXXM_DataLoader_Service;
     private final METReport_DataLoader_Service METReport_DataLoader_Service;
+    private final ETL_Metrics_Service etlMetricsService;
+    private final ETL_Logging_Service etlLoggingService;
+    private final DynamoDB_BatchWriter_Service dynamoDBBatchWriterService;
+    private final DynamoDB_Coalescing_Service dynamoDBCoalescingService;
+    private final ETL_PriorityScheduler_Service etlPrioritySchedulerService;
+    private final Environment environment;
 
 
     public Main_QueueConsumer_Service(FIXM_DataLoader_Service FIXM_DataLoader_Service,
                                       IWXXM_DataLoader_Service IWXXM_DataLoader_Service,
-                                      METReport_DataLoader_Service METReport_DataLoader_Service) {
+                                      METReport_DataLoader_Service METReport_DataLoader_Service,
+                                      ETL_Metrics_Service etlMetricsService,
+                                      ETL_Logging_Service etlLoggingService,
+                                      DynamoDB_BatchWriter_Service dynamoDBBatchWriterService,
+                                      DynamoDB_Coalescing_Service dynamoDBCoalescingService,
+                                      ETL_PriorityScheduler_Service etlPrioritySchedulerService,
+                                      Environment environment) {
         this.FIXM_DataLoader_Service = FIXM_DataLoader_Service;
         this.IWXXM_DataLoader_Service = IWXXM_DataLoader_Service;
         this.METReport_DataLoader_Service = METReport_DataLoader_Service;
+        this.etlMetricsService = etlMetricsService;
+        this.etlLoggingService = etlLoggingService;
+        this.dynamoDBBatchWriterService = dynamoDBBatchWriterService;
+        this.dynamoDBCoalescingService = dynamoDBCoalescingService;
+        this.etlPrioritySchedulerService = etlPrioritySchedulerService;
+        this.environment = environment;
+    }
+
+
+    // One consumed queue with its own connection, receivers, prefetch and in-flight limit, so a backlog on one
+    // queue neither takes the permits nor the prefetched slots the others need
+    private class QueueConsumer {
+        final String queueName;
+        final int concurrency;
+        final int prefetch;
+        final int maxInFlight;
+        final Semaphore inFlightPermits;
+        // Filled by the starter thread while stop() may already read them
+        final List<JMSContext> contexts = new CopyOnWriteArrayList<>();
+        final List<Thread> receivers = new CopyOnWriteArrayList<>();
+
+        QueueConsumer(String queueName, int concurrency, int prefetch, int maxInFlight) {
+            this.queueName = queueName;
+            this.concurrency = concurrency;
+            this.prefetch = prefetch;
+            this.maxInFlight = maxInFlight;
+            this.inFlightPermits = new Semaphore(maxInFlight);
+        }
+
+        // Connects and starts the receivers; each one gets its own session on the queue's connection, since
+        // a JMSContext must not be used concurrently
+        void start(boolean clientAcknowledge) {
+            JmsConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+            if (prefetch >= 0) {
+                JmsDefaultPrefetchPolicy prefetchPolicy = new JmsDefaultPrefetchPolicy();
+                prefetchPolicy.setAll(prefetch);
+                connectionFactory.setPrefetchPolicy(prefetchPolicy);
+            }
+            JMSContext context = connectionFactory.createContext();
+            contexts.add(context);
+            Queue queue = context.createQueue(queueName);
+
+            LOG.info("Awaiting message on {} with {} consumer(s), up to {} in flight, {} acknowledge...",
+                    queueName, concurrency, maxInFlight, clientAcknowledge ? "client" : "auto");
+            etlMetricsService.gauge("etl.consumer.inflight", "Messages of a queue being transformed and loaded, until their items are stored",
+                    () -> maxInFlight - inFlightPermits.availablePermits(), "queue", queueName);
+
+            for (int i = 0; i < concurrency; i++) {
+                JMSContext receiverContext = context.createContext(
+                        clientAcknowledge ? JMSContext.CLIENT_ACKNOWLEDGE : JMSContext.AUTO_ACKNOWLEDGE);
+                contexts.add(receiverContext);
+                JMSConsumer consumer = receiverContext.createConsumer(queue);
+                // Daemon, so a receiver still waiting on a write after the shutdown deadline does not keep the JVM up
+                receivers.add(Thread.ofPlatform()
+                        .name("queue-consumer-" + queueName + "-" + i)
+                        .daemon(true)
+                        .start(() -> receiveMessages(receiverContext, consumer, clientAcknowledge, inFlightPermits)));
+            }
+            // stop() gave up waiting for the connect and has already closed what was there
+            if (!running) {
+                close();
+            }
+        }
+
+        // The connection is only closed with the last of the contexts sharing it; closing a receiver's session
+        // also ends a receive() it is blocked in
+        void close() {
+            for (int i = contexts.size() - 1; i >= 0; i--) {
+                JMSContext context = contexts.remove(i);
+                try {
+                    context.close();
+                } catch (RuntimeException e) {
+                    LOG.warn("Failed to close the connection to {}: {}", queueName, e.getMessage());
+                }
+            }
+        }
+    }
+
+
+    private List<QueueConsumer> queueConsumers() {
+        List<QueueConsumer> queues = new ArrayList<>();
+        if (queueIds.length == 0) {
+            queues.add(new QueueConsumer(DEFAULT_QUEUE_NAME, consumerConcurrency, consumerPrefetch, consumerMaxInFlight));
+        }
+        for (String id : queueIds) {
+            String prefix = "consumer.queue." + id.trim() + ".";
+            queues.add(new QueueConsumer(environment.getRequiredProperty(prefix + "name"),
+                    environment.getProperty(prefix + "concurrency", Integer.class, consumerConcurrency),
+                    environment.getProperty(prefix + "prefetch", Integer.class, consumerPrefetch),
+                    environment.getProperty(prefix + "maxInFlight", Integer.class, consumerMaxInFlight)));
+        }
+        return queues;
+    }
+
+
+    @Override
+    public void start() {
+        queues = queueConsumers();
+        running = true;
+
+        starter = Thread.ofPlatform().name("queue-consumer-start").start(this::connect);
     }
 
 
-    @PostConstruct
-    public void start() throws Exception {
-        System.out.printf("QueueConsumer is connecting to Solace router %s...%n", solaceHost);
+    // Connects the queues one after the other. One that fails (broker down, wrong credentials or queue name) is
+    // closed again and retried with backoff until it connects or stop() is called; queues already connected
+    // keep receiving meanwhile.
+    private void connect() {
+        LOG.info("QueueConsumer is connecting to Solace router {}...", solaceHost);
 
         // String connectionURI = "amqps://broker.swimapisg.info:5675?transport.trustAll=true&transport.verifyHost=false";
 
-        ConnectionFactory connectionFactory = new JmsConnectionFactory(solaceUsername, solacePassword, solaceHost);
+        boolean clientAcknowledge = "client".equalsIgnoreCase(acknowledgeMode);
+        for (QueueConsumer queue : queues) {
+            long retryMs = Math.max(1, connectRetryInitialMs);
+            while (running) {
+                try {
+                    queue.start(clientAcknowledge);
+                    break;
+                } catch (RuntimeException e) {
+                    queue.close();
+                    LOG.error("QueueConsumer failed to connect to {}, retrying in {} ms: {}", queue.queueName, retryMs,
+                            e.getMessage(), e);
+                    awaitRetry(retryMs);
+                    retryMs = Math.min(retryMs * 2, Math.max(retryMs, connectRetryMaxMs));
+                }
+            }
+        }
+        if (running) {
+            LOG.info("Connected with username '{}' to {} queue(s).", solaceUsername, queues.size());
+        }
+    }
+
+
+    // Sleeps until the retry is due; stop() unparks the starter to end it early
+    private void awaitRetry(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        long remainingNanos;
+        while (running && (remainingNanos = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remainingNanos);
+        }
+    }
+
+
+    // Receivers finish and acknowledge the group they are on and then stop; everything received is written
+    // before the connections are closed, unless that takes longer than consumer.shutdownTimeoutMs. Messages
+    // left unacknowledged then are redelivered after the restart. What the coalescing window and the batch
+    // buffers hold is handed to DynamoDB in any case, also when the wait times out.
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(starter);
+        LOG.info("QueueConsumer stopping, waiting up to {} ms for messages in flight...", shutdownTimeoutMs);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(shutdownTimeoutMs);
+
+        try {
+            join(starter, deadline);
+            for (QueueConsumer queue : queues) {
+                for (Thread receiver : queue.receivers) {
+                    join(receiver, deadline);
+                }
+            }
+
+            // Nothing is received any more; what is held back starts writing while the last messages finish
+            flushHeldWrites();
+            if (!etlPrioritySchedulerService.awaitIdle(remainingNanos(deadline), TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException();
+            }
+
+            // Then what those last messages added
+            List<CompletableFuture<Void>> writes = new ArrayList<>(pendingMessages);
+            writes.add(flushHeldWrites());
+            CompletableFuture.allOf(writes.toArray(new CompletableFuture[0]))
+                    .get(remainingNanos(deadline), TimeUnit.NANOSECONDS);
+
+        } catch (TimeoutException e) {
+            LOG.warn("QueueConsumer stopped with {} message(s) still being written.", pendingMessages.size());
+        } catch (ExecutionException e) {
+            // Failed writes are logged where they complete; their messages were not acknowledged
+            LOG.debug("Write failed while stopping: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // A no-op after a clean stop; after a timeout it hands over what was held without waiting for it
+            try {
+                flushHeldWrites();
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to flush held writes while stopping: {}", e.getMessage());
+            }
+            for (QueueConsumer queue : queues) {
+                queue.close();
+            }
+        }
+        LOG.info("QueueConsumer stopped.");
+    }
+
+
+    // Last-state items held by the coalescing window and items still buffered for a batch; the future covers the
+    // coalesced writes, the batched ones complete the futures of their messages
+    private CompletableFuture<Void> flushHeldWrites() {
+        CompletableFuture<Void> coalesced = dynamoDBCoalescingService.flush();
+        dynamoDBBatchWriterService.flush();
+        return coalesced;
+    }
 
-        try (JMSContext context = connectionFactory.createContext()) {
 
-            System.out.printf("Connected with username '%s'.%n", solaceUsername);
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
 
-            Queue queue = context.createQueue(QUEUE_NAME);
 
-            System.out.println("Awaiting message...");
-            System.out.println();
+    private static void join(Thread thread, long deadline) throws InterruptedException, TimeoutException {
+        long remainingNanos = remainingNanos(deadline);
+        if (remainingNanos <= 0 || !thread.join(Duration.ofNanos(remainingNanos))) {
+            throw new TimeoutException();
+        }
+    }
 
-            JMSConsumer consumer = context.createConsumer(queue);
 
-            while (true) {
-                Message message = consumer.receive();
+    private static long remainingNanos(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+
 
-                if (message instanceof TextMessage) {
-                    processTextMessage((TextMessage) message);
+    private void receiveMessages(JMSContext receiverContext, JMSConsumer consumer, boolean clientAcknowledge, Semaphore inFlightPermits) {
+        try {
+            while (running) {
+                if (clientAcknowledge) {
+                    receiveBatch(receiverContext, consumer, inFlightPermits);
+                    continue;
                 }
 
-                else if (message instanceof JmsBytesMessage) {
-                    processBytesMessage((BytesMessage) message);
+                Message message = consumer.receive(RECEIVE_POLL_MS);
+                if (message != null) {
+                    dispatch(message, inFlightPermits);
                 }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (running) {
+                LOG.error("Queue consumer stopped: {}", e.getMessage(), e);
+            }
+        }
+    }
 
-                else {
-                    System.out.printf("Message type received: '%s'%n", message.getJMSType());
-                    System.out.printf(" %s_%s_%s_%s%n", message.getJMSDestination(), message.getJMSMessageID(), message.getJMSReplyTo(), message.getStringProperty("JMSXDeliveryCount"));
-                    System.out.println();
+
+    // Receives a group of messages, waits until every one of them is stored and acknowledges them together.
+    // CLIENT_ACKNOWLEDGE covers everything the session has delivered, so the next group is only received after
+    // this one is settled. If a write failed in a way worth retrying, the session is recovered and the whole group
+    // is redelivered; the items that did get written are then skipped by the dedup cache. A group is never
+    // recovered while one of its writes is still pending: that message still holds its dedup claim, so its
+    // redelivery would be skipped and acknowledged, and lost if the pending write then failed. Writes DynamoDB rejected for good (e.g. a ValidationException), and messages on their
+    // maxDeliveries-th delivery, are logged and dropped instead, so they cannot hold the queue up forever.
+    private void receiveBatch(JMSContext receiverContext, JMSConsumer consumer, Semaphore inFlightPermits) throws InterruptedException, JMSException {
+        Message first = consumer.receive(RECEIVE_POLL_MS);
+        if (first == null) {
+            return;
+        }
+
+        List<Message> messages = new ArrayList<>(ackBatchSize);
+        List<CompletableFuture<Void>> results = new ArrayList<>(ackBatchSize);
+        messages.add(first);
+        results.add(dispatch(first, inFlightPermits));
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackBatchMaxWaitMs);
+        while (results.size() < ackBatchSize) {
+            long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            Message message = remainingMs > 0 ? consumer.receive(remainingMs) : consumer.receiveNoWait();
+            if (message == null) {
+                break;
+            }
+            messages.add(message);
+            results.add(dispatch(message, inFlightPermits));
+        }
+
+        awaitSettled(results);
+
+        boolean redeliver = false;
+        for (int i = 0; i < results.size(); i++) {
+            CompletableFuture<Void> result = results.get(i);
+            if (!result.isCompletedExceptionally()) {
+                continue;
+            }
+            Message message = messages.get(i);
+            String destination = message.getJMSDestination() != null ? message.getJMSDestination().toString() : null;
+            Throwable failure = result.exceptionNow();
+
+            if (!DynamoDB_Spool_Service.isSpoolable(failure)) {
+                LOG.error("Message {} on {} can not be stored and is dropped: {}", message.getJMSMessageID(), destination,
+                        failure.getMessage());
+                etlMetricsService.recordMessageDropped(destination, "rejected");
+            } else if (maxDeliveries > 0 && deliveryCount(message) >= maxDeliveries) {
+                LOG.error("Message {} on {} failed on delivery {} and is dropped: {}", message.getJMSMessageID(), destination,
+                        deliveryCount(message), failure.getMessage());
+                etlMetricsService.recordMessageDropped(destination, "maxDeliveries");
+            } else {
+                LOG.warn("Write failed for message {} on {}: {}", message.getJMSMessageID(), destination, failure.getMessage());
+                redeliver = true;
+            }
+        }
+
+        if (redeliver) {
+            LOG.warn("Recovering a group of {} messages for redelivery.", results.size());
+            receiverContext.recover();
+        } else {
+            receiverContext.acknowledge();
+        }
+    }
+
+    // Waits until every write of the group succeeded or failed, logging every ackTimeoutMs while some are pending
+    private void awaitSettled(List<CompletableFuture<Void>> results) throws InterruptedException {
+        CompletableFuture<Void> settled = CompletableFuture.allOf(results.toArray(new CompletableFuture[0]));
+        long waitedMs = 0;
+        while (true) {
+            try {
+                settled.get(ackTimeoutMs, TimeUnit.MILLISECONDS);
+                return;
+            } catch (ExecutionException e) {
+                // Looked at per message by the caller
+                return;
+            } catch (TimeoutException e) {
+                waitedMs += ackTimeoutMs;
+                LOG.warn("{} of a group of {} messages still pending after {} ms, waiting for them before acknowledging.",
+                        results.stream().filter(result -> !result.isDone()).count(), results.size(), waitedMs);
+            }
+        }
+    }
+
+    // JMSXDeliveryCount is 1 on the first delivery; brokers that do not set it count as a first delivery
+    private static int deliveryCount(Message message) throws JMSException {
+        return message.propertyExists("JMSXDeliveryCount") ? message.getIntProperty("JMSXDeliveryCount") : 1;
+    }
+
+
+    // Hands a message to a worker through its priority lane. The future completes when its item is stored (or
+    // it was skipped).
+    private CompletableFuture<Void> dispatch(Message message, Semaphore inFlightPermits) throws InterruptedException, JMSException {
+        Destination destination = message.getJMSDestination();
+        CompletableFuture<Void> stored = new CompletableFuture<>();
+        pendingMessages.add(stored);
+        stored.whenComplete((v, e) -> pendingMessages.remove(stored));
+
+        // Blocks the receiver once maxInFlight messages of its queue are still being processed. The permit is
+        // held until the item is stored, not just converted, so in batch and async mode it bounds pending writes too.
+        inFlightPermits.acquire();
+        stored.whenComplete((v, e) -> inFlightPermits.release());
+        try {
+            String destinationName = destination != null ? destination.toString() : null;
+            etlPrioritySchedulerService.execute(destinationName, orderingKey(message, destinationName), () -> {
+                try {
+                    processMessage(message).whenComplete((v, e) -> {
+                        if (e == null) {
+                            stored.complete(null);
+                        } else {
+                            stored.completeExceptionally(e);
+                        }
+                    });
+                } catch (Throwable e) {
+                    stored.completeExceptionally(e);
                 }
+            });
+        } catch (RuntimeException | JMSException e) {
+            stored.completeExceptionally(e);
+            throw e;
+        }
+        return stored;
+    }
+
+
+    // Flight plans and departures of one flight are the only messages for one key in both priority lanes; their
+    // gufi makes them start in arrival order. A BytesMessage body is read here once more and reset for the worker.
+    private static String orderingKey(Message message, String destination) throws JMSException {
+        if (destination == null || !destination.contains("fixm")) {
+            return null;
+        }
+        if (message instanceof TextMessage) {
+            return FIXM_GufiScanner.gufi(((TextMessage) message).getText());
+        }
+        if (message instanceof BytesMessage) {
+            BytesMessage bytesMessage = (BytesMessage) message;
+            int bodyLength = (int) bytesMessage.getBodyLength();
+            byte[] buffer = JMS_BodyBufferPool.borrow(bodyLength);
+            try {
+                return FIXM_GufiScanner.gufi(buffer, Math.max(0, bytesMessage.readBytes(buffer, bodyLength)));
+            } finally {
+                JMS_BodyBufferPool.release(buffer);
+                bytesMessage.reset();
             }
         }
+        return null;
     }
 
 
-    private void processBytesMessage(BytesMessage message) throws JMSException {
-        byte[] byteData = new byte[(int) message.getBodyLength()];
-        message.readBytes(byteData);
-        message.reset();
-        String stringMessage = new String(byteData);
-        System.out.printf("BytesMessage received: '%s'%n", stringMessage);
+    private CompletableFuture<Void> processMessage(Message message) {
+        try {
+            Destination destination = message.getJMSDestination();
+            etlMetricsService.recordMessageReceived(destination != null ? destination.toString() : null);
+
+            if (message instanceof TextMessage) {
+                return processTextMessage((TextMessage) message);
+            }
+
+            else if (message instanceof BytesMessage) {
+                return processBytesMessage((BytesMessage) message);
+            }
+
+            else {
+                LOG.info("Message type received: '{}' {}_{}_{}_{}", message.getJMSType(), message.getJMSDestination(),
+                        message.getJMSMessageID(), message.getJMSReplyTo(), message.getStringProperty("JMSXDeliveryCount"));
+            }
+        } catch (Exception e) {
+            LOG.error("Failed to process message: {}", e.getMessage(), e);
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.completedFuture(null);
+    }
+
 
+    // Routed like a TextMessage, but the body is read into a pooled buffer and the loaders parse the UTF-8
+    // bytes directly instead of a String decoded from them. The loaders are done with the buffer once they
+    // return (only the write is still pending), so it goes back to the pool right away.
+    private CompletableFuture<Void> processBytesMessage(BytesMessage message) throws JMSException {
         String formattedTimestamp = convertJMSTimestamp(message);
+        String jmsMessageID = message.getJMSMessageID();
         String jmsDestination = message.getJMSDestination().toString();
 
-        //System.out.printf(" logTimestamp: %s%n", formattedTimestamp);
-        System.out.printf(" Topic:%s%n", jmsDestination);
-        System.out.println("BytesMessage received. Skipping...");
+        LOG.debug("BytesMessage {} received on {}, logTimestamp {}", jmsMessageID, jmsDestination, formattedTimestamp);
+
+        int bodyLength = (int) message.getBodyLength();
+        byte[] buffer = JMS_BodyBufferPool.borrow(bodyLength);
+        try {
+            // -1 for an empty body
+            int length = Math.max(0, message.readBytes(buffer, bodyLength));
 
-        System.out.println();
+            if (etlLoggingService.isPayloadSampled(jmsDestination, jmsMessageID)) {
+                etlLoggingService.logPayload("{} BytesMessage received: '{}'", messageProperties(message),
+                        new String(buffer, 0, length, StandardCharsets.UTF_8));
+            }
+
+            if (jmsDestination.contains("fixm")) {
+                LOG.debug("Processing FIXM data...");
+                return FIXM_DataLoader_Service.processMessageContent(buffer, length, formattedTimestamp, jmsMessageID, jmsDestination);
+            }
+            else if (jmsDestination.contains("iwxxm")) {
+                LOG.debug("Processing IWXXM data...");
+                return IWXXM_DataLoader_Service.processMessageContent(buffer, length, formattedTimestamp, jmsMessageID, jmsDestination);
+            }
+            else if (jmsDestination.contains("met-report")) {
+                LOG.debug("Processing MET Report data...");
+                return METReport_DataLoader_Service.processMessageContent(buffer, length, formattedTimestamp, jmsMessageID, jmsDestination);
+            }
+            else {
+                LOG.info("Skipping message {} on {}.", jmsMessageID, jmsDestination);
+                return CompletableFuture.completedFuture(null);
+            }
+        } finally {
+            JMS_BodyBufferPool.release(buffer);
+        }
     }
 
 
@@ -111,13 +613,40 @@ public class Main_QueueConsumer_Service {
     }
 
 
-    private void processTextMessage(TextMessage message) throws JMSException {
+    private CompletableFuture<Void> processTextMessage(TextMessage message) throws JMSException {
 
         String messageContent = message.getText();
         String formattedTimestamp = convertJMSTimestamp(message);
         String jmsMessageID = message.getJMSMessageID();
         String jmsDestination = message.getJMSDestination().toString();
 
+        LOG.debug("TextMessage {} received on {}, logTimestamp {}", jmsMessageID, jmsDestination, formattedTimestamp);
+
+        // Properties and body only for sampled messages while payload logging is on
+        if (etlLoggingService.isPayloadSampled(jmsDestination, jmsMessageID)) {
+            etlLoggingService.logPayload("{} TextMessage received: '{}'", messageProperties(message), messageContent);
+        }
+
+        // To determine type of data
+        if (jmsDestination.contains("fixm")) {
+            LOG.debug("Processing FIXM data...");
+            return FIXM_DataLoader_Service.processMessageContent(messageContent, formattedTimestamp, jmsMessageID, jmsDestination);
+        }
+        else if (jmsDestination.contains("iwxxm")) {
+            LOG.debug("Processing IWXXM data...");
+            return IWXXM_DataLoader_Service.processMessageContent(messageContent, formattedTimestamp, jmsMessageID, jmsDestination);
+        }
+        else if (jmsDestination.contains("met-report")) {
+            LOG.debug("Processing MET Report data...");
+            return METReport_DataLoader_Service.processMessageContent(messageContent, formattedTimestamp, jmsMessageID, jmsDestination);
+        }
+        else {
+            LOG.info("Skipping message {} on {}.", jmsMessageID, jmsDestination);
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+
+    private static String messageProperties(Message message) throws JMSException {
         Enumeration<?> propertyNames = message.getPropertyNames();
         StringBuilder propertiesString = new StringBuilder("Message Content: [");
 
@@ -133,33 +662,6 @@ public class Main_QueueConsumer_Service {
         }
         propertiesString.append("]");
 
-        // 1. Print Properties string first
-        System.out.println(propertiesString);
-
-        // 2. Print the main text body next
-        System.out.printf("TextMessage received: '%s'%n", messageContent);
-
-        // 3. Print additional information: logTimestamp (sort key), messageID, messageDestination
-        System.out.printf(" logTimestamp: %s%n", formattedTimestamp);
-        System.out.printf(" %s%n", jmsMessageID);
-        System.out.printf(" Topic:%s%n", jmsDestination);
-
-        // To determine type of data
-        if (jmsDestination.contains("fixm")) {
-            System.out.println("Processing FIXM data...");
-            FIXM_DataLoader_Service.processMessageContent(messageContent, formattedTimestamp, jmsMessageID, jmsDestination);
-        }
-        else if (jmsDestination.contains("iwxxm")) {
-            System.out.println("Processing IWXXM data...");
-            IWXXM_DataLoader_Service.processMessageContent(messageContent, formattedTimestamp, jmsMessageID, jmsDestination);
-        }
-        else if (jmsDestination.contains("met-report")) {
-            System.out.println("Processing MET Report data...");
-            METReport_DataLoader_Service.processMessageContent(messageContent, formattedTimestamp, jmsMessageID, jmsDestination);
-        }
-        else {
-            System.out.println("Skipping...");
-            System.out.println();
-        }
+        return propertiesString.toString();
     }
 }
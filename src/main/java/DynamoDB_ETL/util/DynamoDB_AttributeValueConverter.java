@@ -0,0 +1,75 @@
+package DynamoDB_ETL.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns the converters' in-memory JSON trees straight into DynamoDB items, without serializing to a String
+// and parsing it again. Objects become M, arrays L and every scalar S, as the loaders have always stored them.
+public class DynamoDB_AttributeValueConverter {
+
+    static final AttributeValue NULL_STRING = AttributeValue.builder().s("null").build();
+
+    // keepNulls mirrors how the tree used to be serialized: JsonObject.toString() writes nulls (stored as "null"),
+    // Gson.toJson() drops them
+    public static Map<String, AttributeValue> fromJsonObject(JsonObject jsonObject, boolean keepNulls) {
+        Map<String, AttributeValue> attributeValueMap = new HashMap<>();
+
+        for (Map.Entry<String, JsonElement> entry : jsonObject.entrySet()) {
+            JsonElement value = entry.getValue();
+            if (value.isJsonNull() && !keepNulls) {
+                continue;
+            }
+            attributeValueMap.put(entry.getKey(), fromJsonElement(value, keepNulls));
+        }
+
+        return attributeValueMap;
+    }
+
+    private static AttributeValue fromJsonElement(JsonElement value, boolean keepNulls) {
+        if (value.isJsonObject()) {
+            return AttributeValue.builder().m(fromJsonObject(value.getAsJsonObject(), keepNulls)).build();
+        } else if (value.isJsonArray()) {
+            JsonArray jsonArray = value.getAsJsonArray();
+            List<AttributeValue> attributeValueList = new ArrayList<>(jsonArray.size());
+            for (JsonElement element : jsonArray) {
+                attributeValueList.add(fromJsonElement(element, keepNulls));
+            }
+            return AttributeValue.builder().l(attributeValueList).build();
+        } else if (value.isJsonNull()) {
+            return NULL_STRING;
+        } else {
+            return AttributeValue.builder().s(value.getAsString()).build();
+        }
+    }
+
+    public static Map<String, AttributeValue> fromJsonNode(JsonNode jsonNode) {
+        Map<String, AttributeValue> attributeValueMap = new HashMap<>();
+
+        jsonNode.fields().forEachRemaining(entry ->
+                attributeValueMap.put(entry.getKey(), fromJsonNodeValue(entry.getValue())));
+
+        return attributeValueMap;
+    }
+
+    private static AttributeValue fromJsonNodeValue(JsonNode value) {
+        if (value.isObject()) {
+            return AttributeValue.builder().m(fromJsonNode(value)).build();
+        } else if (value.isArray()) {
+            List<AttributeValue> attributeValueList = new ArrayList<>(value.size());
+            for (JsonNode element : value) {
+                attributeValueList.add(fromJsonNodeValue(element));
+            }
+            return AttributeValue.builder().l(attributeValueList).build();
+        } else {
+            return AttributeValue.builder().s(value.asText()).build();
+        }
+    }
+}
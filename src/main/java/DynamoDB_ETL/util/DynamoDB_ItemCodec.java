@@ -0,0 +1,215 @@
+package DynamoDB_ETL.util;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compact binary form of a table name plus DynamoDB item, used by the local spool. Attributes to merge into
+// an item rather than put as a whole are followed by the name of the key attribute they are merged on.
+// Every value is a one-byte type tag followed by its body; lengths and counts are unsigned varints.
+public class DynamoDB_ItemCodec {
+
+    private static final byte S = 1, N = 2, B = 3, BOOL = 4, NUL = 5, SS = 6, NS = 7, BS = 8, M = 9, L = 10;
+
+    // keyAttribute is null for an item that is put, the key attribute name for attributes that are merged
+    public static class Record {
+        public final String tableName;
+        public final String keyAttribute;
+        public final Map<String, AttributeValue> item;
+
+        Record(String tableName, String keyAttribute, Map<String, AttributeValue> item) {
+            this.tableName = tableName;
+            this.keyAttribute = keyAttribute;
+            this.item = item;
+        }
+    }
+
+    public static byte[] encode(String tableName, Map<String, AttributeValue> item) {
+        return encode(tableName, null, item);
+    }
+
+    public static byte[] encode(String tableName, String keyAttribute, Map<String, AttributeValue> item) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        writeString(out, tableName);
+        writeMap(out, item);
+        if (keyAttribute != null) {
+            writeString(out, keyAttribute);
+        }
+        return out.toByteArray();
+    }
+
+    // Throws IllegalArgumentException on malformed input
+    public static Record decode(byte[] encoded) {
+        ByteBuffer in = ByteBuffer.wrap(encoded);
+        try {
+            String tableName = readString(in);
+            Map<String, AttributeValue> item = readMap(in);
+            String keyAttribute = in.hasRemaining() ? readString(in) : null;
+            if (in.hasRemaining()) {
+                throw new IllegalArgumentException("Trailing bytes after spooled item");
+            }
+            return new Record(tableName, keyAttribute, item);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated spooled item", e);
+        }
+    }
+
+    private static void writeMap(ByteArrayOutputStream out, Map<String, AttributeValue> map) {
+        writeVarInt(out, map.size());
+        for (Map.Entry<String, AttributeValue> entry : map.entrySet()) {
+            writeString(out, entry.getKey());
+            writeValue(out, entry.getValue());
+        }
+    }
+
+    private static void writeValue(ByteArrayOutputStream out, AttributeValue value) {
+        switch (value.type()) {
+            case S -> {
+                out.write(S);
+                writeString(out, value.s());
+            }
+            case N -> {
+                out.write(N);
+                writeString(out, value.n());
+            }
+            case B -> {
+                out.write(B);
+                writeBytes(out, value.b().asByteArrayUnsafe());
+            }
+            case BOOL -> {
+                out.write(BOOL);
+                out.write(value.bool() ? 1 : 0);
+            }
+            case NUL -> out.write(NUL);
+            case SS -> {
+                out.write(SS);
+                writeVarInt(out, value.ss().size());
+                value.ss().forEach(s -> writeString(out, s));
+            }
+            case NS -> {
+                out.write(NS);
+                writeVarInt(out, value.ns().size());
+                value.ns().forEach(n -> writeString(out, n));
+            }
+            case BS -> {
+                out.write(BS);
+                writeVarInt(out, value.bs().size());
+                value.bs().forEach(b -> writeBytes(out, b.asByteArrayUnsafe()));
+            }
+            case M -> {
+                out.write(M);
+                writeMap(out, value.m());
+            }
+            case L -> {
+                out.write(L);
+                writeVarInt(out, value.l().size());
+                value.l().forEach(element -> writeValue(out, element));
+            }
+            default -> throw new IllegalArgumentException("Unsupported attribute value type: " + value.type());
+        }
+    }
+
+    private static Map<String, AttributeValue> readMap(ByteBuffer in) {
+        int size = readVarInt(in);
+        Map<String, AttributeValue> map = new HashMap<>(Math.max(4, size * 4 / 3 + 1));
+        for (int i = 0; i < size; i++) {
+            String name = readString(in);
+            map.put(name, readValue(in));
+        }
+        return map;
+    }
+
+    private static AttributeValue readValue(ByteBuffer in) {
+        byte type = in.get();
+        return switch (type) {
+            case S -> AttributeValue.builder().s(readString(in)).build();
+            case N -> AttributeValue.builder().n(readString(in)).build();
+            case B -> AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(readBytes(in))).build();
+            case BOOL -> AttributeValue.builder().bool(in.get() != 0).build();
+            case NUL -> AttributeValue.builder().nul(true).build();
+            case SS -> AttributeValue.builder().ss(readStrings(in)).build();
+            case NS -> AttributeValue.builder().ns(readStrings(in)).build();
+            case BS -> {
+                int count = readVarInt(in);
+                List<SdkBytes> blobs = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    blobs.add(SdkBytes.fromByteArrayUnsafe(readBytes(in)));
+                }
+                yield AttributeValue.builder().bs(blobs).build();
+            }
+            case M -> AttributeValue.builder().m(readMap(in)).build();
+            case L -> {
+                int count = readVarInt(in);
+                List<AttributeValue> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(readValue(in));
+                }
+                yield AttributeValue.builder().l(values).build();
+            }
+            default -> throw new IllegalArgumentException("Unknown attribute value tag: " + type);
+        };
+    }
+
+    private static List<String> readStrings(ByteBuffer in) {
+        int count = readVarInt(in);
+        List<String> strings = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(readString(in));
+        }
+        return strings;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        writeBytes(out, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String readString(ByteBuffer in) {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] readBytes(ByteBuffer in) {
+        int length = readVarInt(in);
+        if (length > in.remaining()) {
+            throw new IllegalArgumentException("Length " + length + " exceeds the remaining " + in.remaining() + " bytes");
+        }
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IllegalArgumentException("Negative length or count");
+                }
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
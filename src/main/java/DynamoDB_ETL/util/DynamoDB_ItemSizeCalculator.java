@@ -0,0 +1,101 @@
+package DynamoDB_ETL.util;
+
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+public class DynamoDB_ItemSizeCalculator {
+
+    // Item size as DynamoDB bills it: UTF-8 attribute names plus value sizes, with 3 bytes overhead per map/list
+    // and 1 byte per nested element. Used for BatchWriteItem request limits and WCU estimates.
+    public static long calculateItemSize(Map<String, AttributeValue> item) {
+        long size = 0;
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            size += utf8Length(entry.getKey()) + calculateValueSize(entry.getValue());
+        }
+        return size;
+    }
+
+    // Standard writes cost one WCU per started KB of item size
+    public static long calculateWriteUnits(long itemSize) {
+        return Math.max(1, (itemSize + 1023) / 1024);
+    }
+
+    private static long calculateValueSize(AttributeValue value) {
+        if (value == null) {
+            return 0;
+        }
+
+        switch (value.type()) {
+            case S:
+                return utf8Length(value.s());
+            case N:
+                return numberSize(value.n());
+            case B:
+                return value.b().asByteArrayUnsafe().length;
+            case BOOL:
+            case NUL:
+                return 1;
+            case SS: {
+                long size = 0;
+                for (String s : value.ss()) {
+                    size += utf8Length(s);
+                }
+                return size;
+            }
+            case NS: {
+                long size = 0;
+                for (String n : value.ns()) {
+                    size += numberSize(n);
+                }
+                return size;
+            }
+            case BS: {
+                long size = 0;
+                for (SdkBytes b : value.bs()) {
+                    size += b.asByteArrayUnsafe().length;
+                }
+                return size;
+            }
+            case M: {
+                long size = 3;
+                for (Map.Entry<String, AttributeValue> entry : value.m().entrySet()) {
+                    size += 1 + utf8Length(entry.getKey()) + calculateValueSize(entry.getValue());
+                }
+                return size;
+            }
+            case L: {
+                long size = 3;
+                List<AttributeValue> list = value.l();
+                for (AttributeValue element : list) {
+                    size += 1 + calculateValueSize(element);
+                }
+                return size;
+            }
+            default:
+                return 0;
+        }
+    }
+
+    // Numbers are stored with up to 38 significant digits, roughly 1 byte per 2 digits plus 1
+    private static long numberSize(String number) {
+        return number == null ? 0 : (number.length() + 1) / 2 + 1;
+    }
+
+    private static long utf8Length(String s) {
+        if (s == null) {
+            return 0;
+        }
+        // Fast path for ASCII, which covers nearly all FIXM/IWXXM/MET content
+        long length = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) {
+                return s.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return length;
+    }
+}
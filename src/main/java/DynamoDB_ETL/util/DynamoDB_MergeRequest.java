@@ -0,0 +1,206 @@
+package DynamoDB_ETL.util;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+// UpdateItem requests that merge attributes into the stored item with the same key. Top-level attributes are
+// set as a whole, except maps (departure, arrival, ...), whose entries are set one by one, so entries another
+// writer put into the same map are kept. Null values (NULL, or the "null" string the converters store for a JSON
+// null) are left out: a message without a value for a field does not clear the value an earlier message stored.
+//
+// A path inside a map can only be set once the map exists, and DynamoDB rejects an update that creates a map and
+// sets a path below it at once. update() with requireParents is therefore conditional on the maps being there;
+// when that fails (a new item, or one without some of the maps yet), createParents() adds the missing ones as
+// empty maps and update() is sent again without requireParents.
+//
+// With onlyIfNewer the requests are also conditional on the stored item not coming from a newer message
+// (logTimestamp), for writes that may be sent late, like spool replays. A stale request then fails with a
+// ConditionalCheckFailedException as well.
+public class DynamoDB_MergeRequest {
+
+    private static final AttributeValue EMPTY_MAP = AttributeValue.builder().m(Collections.emptyMap()).build();
+
+    // Same ISO-8601 UTC format on every item, so comparing the strings compares the times
+    private static final String LOG_TIMESTAMP = "logTimestamp";
+    private static final String NOT_NEWER = "(attribute_not_exists(#lt) OR #lt <= :lt)";
+
+    // SET #n0 = :v0, #n1.#n2 = :v1, ... with placeholders, so attribute names never clash with reserved words
+    public static UpdateItemRequest update(String tableName, String keyAttribute, Map<String, AttributeValue> attributes,
+                                           boolean requireParents, boolean onlyIfNewer) {
+        StringBuilder updateExpression = new StringBuilder();
+        StringBuilder condition = new StringBuilder();
+        Map<String, String> names = new HashMap<>();
+        Map<String, AttributeValue> values = new HashMap<>();
+
+        for (Map.Entry<String, AttributeValue> attribute : attributes.entrySet()) {
+            AttributeValue value = attribute.getValue();
+            if (attribute.getKey().equals(keyAttribute) || isNull(value)) {
+                continue;
+            }
+            String name = name(names, attribute.getKey());
+            if (!isMergedMap(value)) {
+                set(updateExpression, name, value(values, value));
+                continue;
+            }
+            for (Map.Entry<String, AttributeValue> entry : value.m().entrySet()) {
+                if (!isNull(entry.getValue())) {
+                    set(updateExpression, name + "." + name(names, entry.getKey()), value(values, entry.getValue()));
+                }
+            }
+            if (requireParents) {
+                condition.append(condition.length() > 0 ? " AND " : "").append("attribute_exists(").append(name).append(')');
+            }
+        }
+
+        UpdateItemRequest.Builder request = UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(key(tableName, keyAttribute, attributes));
+        if (updateExpression.length() > 0) {
+            if (onlyIfNewer && hasLogTimestamp(attributes)) {
+                condition.append(condition.length() > 0 ? " AND " : "").append(NOT_NEWER);
+                names.put("#lt", LOG_TIMESTAMP);
+                values.put(":lt", attributes.get(LOG_TIMESTAMP));
+            }
+            request.updateExpression("SET " + updateExpression)
+                    .expressionAttributeNames(names)
+                    .expressionAttributeValues(values);
+            if (condition.length() > 0) {
+                request.conditionExpression(condition.toString());
+            }
+        }
+        return request.build();
+    }
+
+    // SET #n0 = if_not_exists(#n0, :empty), ... for the maps update() sets entries in; null if there are none
+    public static UpdateItemRequest createParents(String tableName, String keyAttribute, Map<String, AttributeValue> attributes,
+                                                  boolean onlyIfNewer) {
+        StringBuilder updateExpression = new StringBuilder();
+        Map<String, String> names = new HashMap<>();
+        for (Map.Entry<String, AttributeValue> attribute : attributes.entrySet()) {
+            if (!attribute.getKey().equals(keyAttribute) && isMergedMap(attribute.getValue())) {
+                String name = name(names, attribute.getKey());
+                set(updateExpression, name, "if_not_exists(" + name + ", :empty)");
+            }
+        }
+        if (updateExpression.length() == 0) {
+            return null;
+        }
+
+        Map<String, AttributeValue> values = new HashMap<>();
+        values.put(":empty", EMPTY_MAP);
+        UpdateItemRequest.Builder request = UpdateItemRequest.builder()
+                .tableName(tableName)
+                .key(key(tableName, keyAttribute, attributes))
+                .updateExpression("SET " + updateExpression);
+        if (onlyIfNewer && hasLogTimestamp(attributes)) {
+            request.conditionExpression(NOT_NEWER);
+            names.put("#lt", LOG_TIMESTAMP);
+            values.put(":lt", attributes.get(LOG_TIMESTAMP));
+        }
+        return request.expressionAttributeNames(names)
+                .expressionAttributeValues(values)
+                .build();
+    }
+
+    // PutItem of a whole item that only replaces a stored item from an older (or the same) message
+    public static PutItemRequest putIfNewer(String tableName, Map<String, AttributeValue> item) {
+        PutItemRequest.Builder request = PutItemRequest.builder()
+                .tableName(tableName)
+                .item(item);
+        if (hasLogTimestamp(item)) {
+            request.conditionExpression(NOT_NEWER)
+                    .expressionAttributeNames(Collections.singletonMap("#lt", LOG_TIMESTAMP))
+                    .expressionAttributeValues(Collections.singletonMap(":lt", item.get(LOG_TIMESTAMP)));
+        }
+        return request.build();
+    }
+
+    // True if update() with requireParents failed because a map it sets entries in does not exist yet
+    public static boolean isMissingParent(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof ConditionalCheckFailedException;
+    }
+
+    // The whole merge on the calling thread, for callers without an async pipeline (the spool drain), only if
+    // the stored item is not newer. False if it was: then the attributes are not merged.
+    public static boolean mergeIfNewer(DynamoDbClient dynamoDbClient, String tableName, String keyAttribute,
+                                       Map<String, AttributeValue> attributes) {
+        try {
+            dynamoDbClient.updateItem(update(tableName, keyAttribute, attributes, true, true));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            // Missing maps or a newer item; the maps are created unless the item is newer
+        }
+        try {
+            UpdateItemRequest createParents = createParents(tableName, keyAttribute, attributes, true);
+            if (createParents != null) {
+                dynamoDbClient.updateItem(createParents);
+            }
+            dynamoDbClient.updateItem(update(tableName, keyAttribute, attributes, false, true));
+            return true;
+        } catch (ConditionalCheckFailedException e) {
+            return false;
+        }
+    }
+
+    // Maps with at least one non-null entry are merged entry by entry; an empty one would not set anything
+    private static boolean isMergedMap(AttributeValue value) {
+        if (!value.hasM()) {
+            return false;
+        }
+        for (AttributeValue entry : value.m().values()) {
+            if (!isNull(entry)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean hasLogTimestamp(Map<String, AttributeValue> attributes) {
+        AttributeValue logTimestamp = attributes.get(LOG_TIMESTAMP);
+        return logTimestamp != null && logTimestamp.s() != null && !isNull(logTimestamp);
+    }
+
+    private static boolean isNull(AttributeValue value) {
+        return value == null || Boolean.TRUE.equals(value.nul()) || "null".equals(value.s());
+    }
+
+    private static Map<String, AttributeValue> key(String tableName, String keyAttribute, Map<String, AttributeValue> attributes) {
+        AttributeValue key = attributes.get(keyAttribute);
+        if (key == null) {
+            throw new IllegalArgumentException("Key attribute " + keyAttribute + " missing from the update for " + tableName);
+        }
+        return Collections.singletonMap(keyAttribute, key);
+    }
+
+    private static void set(StringBuilder updateExpression, String path, String value) {
+        if (updateExpression.length() > 0) {
+            updateExpression.append(", ");
+        }
+        updateExpression.append(path).append(" = ").append(value);
+    }
+
+    private static String name(Map<String, String> names, String attributeName) {
+        String placeholder = "#n" + names.size();
+        names.put(placeholder, attributeName);
+        return placeholder;
+    }
+
+    private static String value(Map<String, AttributeValue> values, AttributeValue value) {
+        String placeholder = ":v" + values.size();
+        values.put(placeholder, value);
+        return placeholder;
+    }
+}
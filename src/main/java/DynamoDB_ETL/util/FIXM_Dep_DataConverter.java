@@ -2,56 +2,162 @@ package DynamoDB_ETL.util;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import static DynamoDB_ETL.util.FIXM_FieldMapping.attribute;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.group;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.text;
 
 public class FIXM_Dep_DataConverter {
 
+    private static final Logger LOG = LoggerFactory.getLogger(FIXM_Dep_DataConverter.class);
+
+    private static final Map<String, String> NAMESPACE = new HashMap<String, String>() {{
+        put("fx", "http://www.fixm.aero/flight/4.1");
+    }};
+
+    // The fields of convertFIXMDepXml as a mapping, compiled once. Looked up over the whole document, as
+    // getElementsByTagNameNS on the Document does.
+    private static final FIXM_FieldMapping DEP_MAPPING = FIXM_FieldMapping.forDocument(NAMESPACE,
+            text("gufi", "fx:gufi"),
+            attribute("gufiOriginator", "fx:gufiOriginator", "name"),
+            attribute("aircraftIdentification", "fx:flightIdentification", "aircraftIdentification"),
+            group("departure",
+                    attribute("departureAerodrome", "fx:aerodrome", "locationIndicator"),
+                    attribute("actualTimeOfDeparture", "fx:departure", "actualTimeOfDeparture")),
+            group("arrival",
+                    attribute("destinationAerodrome", "fx:destinationAerodrome", "locationIndicator").omitIfNull()));
+
     public static String convertFIXMDepXmlToJson(String xmlStr) {
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(new InputSource(new StringReader(xmlStr)));
+        JsonObject flight = convertFIXMDepXml(xmlStr);
+        return flight != null ? new Gson().toJson(flight) : null;
+    }
 
-            JsonObject flight = new JsonObject();
+    // Same content as convertFIXMDepXmlToJson as a DynamoDB item (nulls dropped as Gson.toJson does). The DOM
+    // path still builds the JsonObject first; the stax path below writes the item directly.
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItem(String xmlStr) {
+        return convertFIXMDepXmlToItem(xmlStr, Map.of());
+    }
+
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItem(String xmlStr, Map<String, AttributeValue> metadata) {
+        return toItem(convertFIXMDepXml(xmlStr), metadata);
+    }
+
+    // Same for a raw message body, parsed from its bytes without a String copy
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItem(InputStream xml) {
+        return convertFIXMDepXmlToItem(xml, Map.of());
+    }
+
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItem(InputStream xml, Map<String, AttributeValue> metadata) {
+        return toItem(convertFIXMDepXml(xml), metadata);
+    }
 
-            // Extract main flight attributes
-            flight.addProperty("gufi", getTextContent(getElement(doc, "gufi", "http://www.fixm.aero/flight/4.1")));
-            flight.addProperty("gufiOriginator", getAttribute(getElement(doc, "gufiOriginator", "http://www.fixm.aero/flight/4.1"), "name"));
-            flight.addProperty("aircraftIdentification", getAttribute(getElement(doc, "flightIdentification", "http://www.fixm.aero/flight/4.1"), "aircraftIdentification"));
+    private static Map<String, AttributeValue> toItem(JsonObject flight, Map<String, AttributeValue> metadata) {
+        if (flight == null) {
+            return null;
+        }
+        Map<String, AttributeValue> item = DynamoDB_AttributeValueConverter.fromJsonObject(flight, false);
+        item.putAll(metadata);
+        return item;
+    }
+
+    // Single-pass StAX variant of convertFIXMDepXmlToJson, driven by DEP_MAPPING; produces the same JSON
+    public static String convertFIXMDepXmlToJsonStax(String xmlStr) {
+        JsonObject flight = convertFIXMDepXmlStax(xmlStr);
+        return flight != null ? new Gson().toJson(flight) : null;
+    }
+
+    // The item in the same pass, without the JsonObject, starting from the message metadata
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItemStax(String xmlStr) {
+        return convertFIXMDepXmlToItemStax(xmlStr, Map.of());
+    }
+
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItemStax(String xmlStr, Map<String, AttributeValue> metadata) {
+        try {
+            return DEP_MAPPING.mapToItem(new StringReader(xmlStr), false, metadata);
+        } catch (Exception e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
 
-            // Extract departure details
-            JsonObject departure = new JsonObject();
-            Element departureElem = getElement(doc, "aerodrome", "http://www.fixm.aero/flight/4.1");
-            String departureLocation = getAttribute(departureElem, "locationIndicator");
-            departure.addProperty("departureAerodrome", departureLocation);
-            departure.addProperty("actualTimeOfDeparture", getAttribute(getElement(doc, "departure", "http://www.fixm.aero/flight/4.1"), "actualTimeOfDeparture"));
-            flight.add("departure", departure);
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItemStax(InputStream xml) {
+        return convertFIXMDepXmlToItemStax(xml, Map.of());
+    }
 
-            // Extract arrival details
-            JsonObject arrival = new JsonObject();
-            Element arrivalElem = getElement(doc, "destinationAerodrome", "http://www.fixm.aero/flight/4.1");
-            if (arrivalElem != null) {
-                arrival.addProperty("destinationAerodrome", getAttribute(arrivalElem, "locationIndicator"));
-            }
-            flight.add("arrival", arrival);
+    public static Map<String, AttributeValue> convertFIXMDepXmlToItemStax(InputStream xml, Map<String, AttributeValue> metadata) {
+        try {
+            return DEP_MAPPING.mapToItem(xml, false, metadata);
+        } catch (Exception e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
 
-            return new Gson().toJson(flight);
+    private static JsonObject convertFIXMDepXmlStax(String xmlStr) {
+        try {
+            return DEP_MAPPING.map(new StringReader(xmlStr));
+        } catch (Exception e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
 
+    private static JsonObject convertFIXMDepXml(String xmlStr) {
+        try {
+            return convertFIXMDepDocument(XML_ParserProvider.parseDocument(xmlStr));
+        } catch (Exception e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
 
+    private static JsonObject convertFIXMDepXml(InputStream xml) {
+        try {
+            return convertFIXMDepDocument(XML_ParserProvider.parseDocument(xml));
         } catch (Exception e) {
-            e.printStackTrace();
+            LOG.warn("Error parsing XML: {}", e.getMessage());
             return null;
         }
     }
 
+    private static JsonObject convertFIXMDepDocument(Document doc) {
+        JsonObject flight = new JsonObject();
+
+        // Extract main flight attributes
+        flight.addProperty("gufi", getTextContent(getElement(doc, "gufi", "http://www.fixm.aero/flight/4.1")));
+        flight.addProperty("gufiOriginator", getAttribute(getElement(doc, "gufiOriginator", "http://www.fixm.aero/flight/4.1"), "name"));
+        flight.addProperty("aircraftIdentification", getAttribute(getElement(doc, "flightIdentification", "http://www.fixm.aero/flight/4.1"), "aircraftIdentification"));
+
+        // Extract departure details
+        JsonObject departure = new JsonObject();
+        Element departureElem = getElement(doc, "aerodrome", "http://www.fixm.aero/flight/4.1");
+        String departureLocation = getAttribute(departureElem, "locationIndicator");
+        departure.addProperty("departureAerodrome", departureLocation);
+        departure.addProperty("actualTimeOfDeparture", getAttribute(getElement(doc, "departure", "http://www.fixm.aero/flight/4.1"), "actualTimeOfDeparture"));
+        flight.add("departure", departure);
+
+        // Extract arrival details
+        JsonObject arrival = new JsonObject();
+        Element arrivalElem = getElement(doc, "destinationAerodrome", "http://www.fixm.aero/flight/4.1");
+        if (arrivalElem != null) {
+            arrival.addProperty("destinationAerodrome", getAttribute(arrivalElem, "locationIndicator"));
+        }
+        flight.add("arrival", arrival);
+
+        return flight;
+    }
+
     // Helper functions
     private static String getAttribute(Element element, String attribute) {
         return element != null ? element.getAttribute(attribute) : null;
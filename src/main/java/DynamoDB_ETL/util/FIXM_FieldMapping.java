@@ -0,0 +1,609 @@
+package DynamoDB_ETL.util;
+
+import com.google.gson.JsonObject;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Declarative field mapping for the FIXM converters. A mapping lists the JSON properties to produce, nested as
+// the JSON is nested, and the prefixed element names they are read from. Every name is looked up the way
+// getElementsByTagNameNS(...).item(0) does it: the first descendant of the element of the enclosing field
+// (getElementsByTagName for a name without prefix). The spec is compiled once into a table from element name
+// to the lookups it can satisfy, so a document is mapped in one StAX pass with one or two hash lookups per
+// element, however many fields the mapping has. The fields are written either into a JsonObject or straight into
+// a DynamoDB item, so the loaders do not walk the tree a second time to convert it.
+public final class FIXM_FieldMapping {
+
+    // --- Output ---
+
+    // Where the fields of one object are written
+    abstract static class Target {
+        abstract void addProperty(String name, String value);
+
+        abstract Target newObject();
+
+        abstract void add(String name, Target object);
+
+        abstract boolean isEmpty();
+    }
+
+    private static final class JsonTarget extends Target {
+        final JsonObject object = new JsonObject();
+
+        @Override
+        void addProperty(String name, String value) {
+            object.addProperty(name, value);
+        }
+
+        @Override
+        Target newObject() {
+            return new JsonTarget();
+        }
+
+        @Override
+        void add(String name, Target object) {
+            this.object.add(name, ((JsonTarget) object).object);
+        }
+
+        @Override
+        boolean isEmpty() {
+            return object.size() == 0;
+        }
+    }
+
+    // Objects become M and values S, as DynamoDB_AttributeValueConverter makes them from the JSON. A null is
+    // stored as "null" with keepNulls (JsonObject.toString()) and left out otherwise (Gson.toJson()).
+    private static final class ItemTarget extends Target {
+        final Map<String, AttributeValue> item;
+        final boolean keepNulls;
+        // Properties set, nulls included, so isEmpty() agrees with the JSON form
+        int size;
+
+        ItemTarget(Map<String, AttributeValue> item, boolean keepNulls) {
+            this.item = item;
+            this.keepNulls = keepNulls;
+        }
+
+        @Override
+        void addProperty(String name, String value) {
+            size++;
+            if (value != null) {
+                item.put(name, AttributeValue.fromS(value));
+            } else if (keepNulls) {
+                item.put(name, DynamoDB_AttributeValueConverter.NULL_STRING);
+            }
+        }
+
+        @Override
+        Target newObject() {
+            return new ItemTarget(new HashMap<>(), keepNulls);
+        }
+
+        // Only called once the object is complete, as the map is copied into the AttributeValue
+        @Override
+        void add(String name, Target object) {
+            size++;
+            item.put(name, AttributeValue.fromM(((ItemTarget) object).item));
+        }
+
+        @Override
+        boolean isEmpty() {
+            return size == 0;
+        }
+    }
+
+    // --- Spec ---
+
+    public abstract static class Field {
+        final String jsonName;
+        final String path;
+        Lookup lookup;
+        boolean omitIfNull;
+        String defaultValue;
+
+        Field(String jsonName, String path) {
+            this.jsonName = jsonName;
+            this.path = path;
+        }
+
+        // The property is left out instead of being set to null when the element is missing
+        public Field omitIfNull() {
+            this.omitIfNull = true;
+            return this;
+        }
+
+        // Value used when the element is missing
+        public Field orElse(String defaultValue) {
+            this.defaultValue = defaultValue;
+            return this;
+        }
+
+        abstract void apply(Target target, Match scope);
+
+        void addProperty(Target target, String value) {
+            if (value == null) {
+                value = defaultValue;
+            }
+            if (value != null || !omitIfNull) {
+                target.addProperty(jsonName, value);
+            }
+        }
+    }
+
+    // Attribute of the enclosing element: "" if the attribute is missing
+    public static Field attribute(String jsonName, String attributeName) {
+        return new AttributeField(jsonName, null, attributeName);
+    }
+
+    // Attribute of the first descendant with that name: null without element, "" without attribute
+    public static Field attribute(String jsonName, String path, String attributeName) {
+        return new AttributeField(jsonName, path, attributeName);
+    }
+
+    // Text content of the enclosing element
+    public static Field text(String jsonName) {
+        return new TextField(jsonName, null);
+    }
+
+    // Text content of the first descendant with that name, null without element
+    public static Field text(String jsonName, String path) {
+        return new TextField(jsonName, path);
+    }
+
+    // Object built from the first descendant with that name; left out without element unless always()
+    public static ObjectField object(String jsonName, String path, Field... fields) {
+        return new ObjectField(jsonName, path, fields);
+    }
+
+    // Object that is always added, its fields read from the enclosing element
+    public static Field group(String jsonName, Field... fields) {
+        return new GroupField(jsonName, fields);
+    }
+
+    // Applies the fields to the enclosing object once per descendant with that name, later ones overwriting
+    public static Field each(String path, Field... fields) {
+        return new EachField(path, fields);
+    }
+
+    // Object with one entry per descendant with that name, keyed by its keyAttribute ("" if missing)
+    public static KeyedField keyed(String jsonName, String path, String keyAttribute, Field... fields) {
+        return new KeyedField(jsonName, path, keyAttribute, fields);
+    }
+
+    private static final class AttributeField extends Field {
+        final String attributeName;
+
+        AttributeField(String jsonName, String path, String attributeName) {
+            super(jsonName, path);
+            this.attributeName = attributeName;
+        }
+
+        @Override
+        void apply(Target target, Match scope) {
+            Match match = path != null ? scope.first(lookup) : scope;
+            addProperty(target, match != null ? match.capture.attributes.getOrDefault(attributeName, "") : null);
+        }
+    }
+
+    private static final class TextField extends Field {
+        TextField(String jsonName, String path) {
+            super(jsonName, path);
+        }
+
+        @Override
+        void apply(Target target, Match scope) {
+            Match match = path != null ? scope.first(lookup) : scope;
+            addProperty(target, match != null ? match.capture.text.toString() : null);
+        }
+    }
+
+    public static final class ObjectField extends Field {
+        final Field[] fields;
+        boolean always;
+
+        ObjectField(String jsonName, String path, Field[] fields) {
+            super(jsonName, path);
+            this.fields = fields;
+        }
+
+        // Adds an empty object when the element is missing
+        public ObjectField always() {
+            this.always = true;
+            return this;
+        }
+
+        @Override
+        void apply(Target target, Match scope) {
+            Match match = scope.first(lookup);
+            if (match == null && !always) {
+                return;
+            }
+            Target object = target.newObject();
+            if (match != null) {
+                applyAll(fields, object, match);
+            }
+            target.add(jsonName, object);
+        }
+    }
+
+    private static final class GroupField extends Field {
+        final Field[] fields;
+
+        GroupField(String jsonName, Field[] fields) {
+            super(jsonName, null);
+            this.fields = fields;
+        }
+
+        @Override
+        void apply(Target target, Match scope) {
+            Target object = target.newObject();
+            applyAll(fields, object, scope);
+            target.add(jsonName, object);
+        }
+    }
+
+    private static final class EachField extends Field {
+        final Field[] fields;
+
+        EachField(String path, Field[] fields) {
+            super(null, path);
+            this.fields = fields;
+        }
+
+        @Override
+        void apply(Target target, Match scope) {
+            for (Match match : scope.all(lookup)) {
+                applyAll(fields, target, match);
+            }
+        }
+    }
+
+    public static final class KeyedField extends Field {
+        final String keyAttribute;
+        final Field[] fields;
+        boolean omitEmpty;
+
+        KeyedField(String jsonName, String path, String keyAttribute, Field[] fields) {
+            super(jsonName, path);
+            this.keyAttribute = keyAttribute;
+            this.fields = fields;
+        }
+
+        // Entries that end up without properties are left out
+        public KeyedField omitEmpty() {
+            this.omitEmpty = true;
+            return this;
+        }
+
+        @Override
+        void apply(Target target, Match scope) {
+            Target entries = target.newObject();
+            for (Match match : scope.all(lookup)) {
+                Target entry = entries.newObject();
+                applyAll(fields, entry, match);
+                if (!omitEmpty || !entry.isEmpty()) {
+                    entries.add(match.capture.attributes.getOrDefault(keyAttribute, ""), entry);
+                }
+            }
+            target.add(jsonName, entries);
+        }
+    }
+
+    private static void applyAll(Field[] fields, Target target, Match scope) {
+        for (Field field : fields) {
+            field.apply(target, scope);
+        }
+    }
+
+    // --- Compiled form ---
+
+    // One element lookup below a parent lookup; `all` collects every match instead of the first
+    private static final class Lookup {
+        final int index;
+        final Lookup parent;
+        // Position among the parent's child lookups
+        final int slot;
+        final boolean all;
+        int childCount;
+        boolean captureText;
+
+        Lookup(int index, Lookup parent, boolean all) {
+            this.index = index;
+            this.parent = parent;
+            this.slot = parent != null ? parent.childCount++ : 0;
+            this.all = all;
+        }
+    }
+
+    // Attributes (by qualified name) and, if a field needs it, the text content of one element
+    private static final class Capture {
+        final int depth;
+        final Map<String, String> attributes = new HashMap<>();
+        StringBuilder text;
+
+        Capture(XMLStreamReader reader, int depth) {
+            this.depth = depth;
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                String prefix = reader.getAttributePrefix(i);
+                String name = prefix == null || prefix.isEmpty()
+                        ? reader.getAttributeLocalName(i)
+                        : prefix + ":" + reader.getAttributeLocalName(i);
+                attributes.put(name, reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    // An element matched by a lookup, with what its child lookups matched below it
+    private static final class Match {
+        final Lookup lookup;
+        final Capture capture;
+        final Match[] first;
+        List<Match>[] all;
+
+        Match(Lookup lookup, Capture capture) {
+            this.lookup = lookup;
+            this.capture = capture;
+            this.first = new Match[lookup.childCount];
+        }
+
+        Match first(Lookup child) {
+            return first[child.slot];
+        }
+
+        List<Match> all(Lookup child) {
+            List<Match> matches = all != null ? all[child.slot] : null;
+            return matches != null ? matches : List.of();
+        }
+
+        @SuppressWarnings("unchecked")
+        void add(Lookup child, Match match) {
+            if (all == null) {
+                all = new List[lookup.childCount];
+            }
+            if (all[child.slot] == null) {
+                all[child.slot] = new ArrayList<>();
+            }
+            all[child.slot].add(match);
+        }
+    }
+
+    private final Field[] fields;
+    private final boolean fromDocumentElement;
+    // Namespace URI -> local name -> lookups for prefixed names; local name -> lookups for unprefixed ones
+    private final Map<String, Map<String, List<Lookup>>> lookupsByNamespace = new HashMap<>();
+    private final Map<String, List<Lookup>> unprefixedLookups = new HashMap<>();
+    private final Lookup documentLookup;
+    private final Lookup rootLookup;
+    private int lookupCount;
+
+    private FIXM_FieldMapping(Map<String, String> namespaces, boolean fromDocumentElement, Field[] fields) {
+        this.fields = fields;
+        this.fromDocumentElement = fromDocumentElement;
+        this.documentLookup = new Lookup(lookupCount++, null, false);
+        this.rootLookup = fromDocumentElement ? new Lookup(lookupCount++, documentLookup, false) : null;
+
+        Map<String, Lookup> lookups = new HashMap<>();
+        compile(namespaces, lookups, fromDocumentElement ? rootLookup : documentLookup, fields);
+    }
+
+    // Fields are read from the document element: its attributes and the elements below it
+    public static FIXM_FieldMapping forDocumentElement(Map<String, String> namespaces, Field... fields) {
+        return new FIXM_FieldMapping(namespaces, true, fields);
+    }
+
+    // Fields are looked up in the whole document, document element included
+    public static FIXM_FieldMapping forDocument(Map<String, String> namespaces, Field... fields) {
+        return new FIXM_FieldMapping(namespaces, false, fields);
+    }
+
+    private void compile(Map<String, String> namespaces, Map<String, Lookup> lookups, Lookup scope, Field[] fields) {
+        for (Field field : fields) {
+            Lookup fieldScope = scope;
+            if (field.path != null) {
+                boolean all = field instanceof EachField || field instanceof KeyedField;
+                // Fields reading the same element share its lookup
+                field.lookup = lookups.computeIfAbsent(scope.index + " " + all + " " + field.path, k -> {
+                    Lookup lookup = new Lookup(lookupCount++, scope, all);
+                    lookupsFor(namespaces, field.path).add(lookup);
+                    return lookup;
+                });
+                fieldScope = field.lookup;
+            }
+
+            if (field instanceof TextField) {
+                fieldScope.captureText = true;
+            } else if (field instanceof ObjectField object) {
+                compile(namespaces, lookups, fieldScope, object.fields);
+            } else if (field instanceof GroupField group) {
+                compile(namespaces, lookups, fieldScope, group.fields);
+            } else if (field instanceof EachField each) {
+                compile(namespaces, lookups, fieldScope, each.fields);
+            } else if (field instanceof KeyedField keyed) {
+                compile(namespaces, lookups, fieldScope, keyed.fields);
+            }
+        }
+    }
+
+    // Resolved once here rather than per message. The local part is taken as is, so a name holding a "/" (not a
+    // path) never matches, exactly like getElementsByTagNameNS with such a name.
+    private List<Lookup> lookupsFor(Map<String, String> namespaces, String name) {
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            return unprefixedLookups.computeIfAbsent(name, n -> new ArrayList<>());
+        }
+        String namespace = namespaces.get(name.substring(0, colon));
+        if (namespace == null) {
+            throw new IllegalArgumentException("Namespace not found for prefix: " + name.substring(0, colon));
+        }
+        return lookupsByNamespace.computeIfAbsent(namespace, n -> new HashMap<>())
+                .computeIfAbsent(name.substring(colon + 1), n -> new ArrayList<>());
+    }
+
+    public JsonObject map(Reader xml) throws XMLStreamException {
+        JsonTarget result = new JsonTarget();
+        map(XML_ParserProvider.createStreamReader(xml), result);
+        return result.object;
+    }
+
+    // For a raw message body; the encoding comes from the XML declaration (UTF-8 by default)
+    public JsonObject map(InputStream xml) throws XMLStreamException {
+        JsonTarget result = new JsonTarget();
+        map(XML_ParserProvider.createStreamReader(xml), result);
+        return result.object;
+    }
+
+    // The same fields as a DynamoDB item, starting from the given attributes (the message metadata)
+    public Map<String, AttributeValue> mapToItem(Reader xml, boolean keepNulls, Map<String, AttributeValue> attributes) throws XMLStreamException {
+        return mapToItem(XML_ParserProvider.createStreamReader(xml), keepNulls, attributes);
+    }
+
+    public Map<String, AttributeValue> mapToItem(InputStream xml, boolean keepNulls, Map<String, AttributeValue> attributes) throws XMLStreamException {
+        return mapToItem(XML_ParserProvider.createStreamReader(xml), keepNulls, attributes);
+    }
+
+    private Map<String, AttributeValue> mapToItem(XMLStreamReader reader, boolean keepNulls, Map<String, AttributeValue> attributes) throws XMLStreamException {
+        ItemTarget result = new ItemTarget(new HashMap<>(attributes), keepNulls);
+        map(reader, result);
+        return result.item;
+    }
+
+    private void map(XMLStreamReader reader, Target result) throws XMLStreamException {
+        try {
+            Match document = new Pass(reader).read();
+            Match scope = fromDocumentElement ? document.first(rootLookup) : document;
+            if (scope != null) {
+                applyAll(fields, result, scope);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // State of one document pass
+    private final class Pass {
+        final XMLStreamReader reader;
+        final Match document = new Match(documentLookup, null);
+        // Matches whose element is still open, per lookup and overall, in the order they were opened
+        final List<Match>[] open;
+        final List<Match> openMatches = new ArrayList<>();
+        final List<Capture> openText = new ArrayList<>();
+        final List<Match> started = new ArrayList<>();
+        Capture capture;
+        int depth;
+
+        @SuppressWarnings("unchecked")
+        Pass(XMLStreamReader reader) {
+            this.reader = reader;
+            this.open = new List[lookupCount];
+            for (int i = 0; i < lookupCount; i++) {
+                open[i] = new ArrayList<>();
+            }
+            open[documentLookup.index].add(document);
+        }
+
+        Match read() throws XMLStreamException {
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                    case XMLStreamConstants.START_ELEMENT -> {
+                        depth++;
+                        startElement();
+                    }
+                    case XMLStreamConstants.END_ELEMENT -> {
+                        endElement();
+                        depth--;
+                    }
+                    case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                        for (Capture text : openText) {
+                            text.text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                    }
+                    default -> {
+                    }
+                }
+            }
+            return document;
+        }
+
+        private void startElement() {
+            capture = null;
+            if (depth == 1 && rootLookup != null) {
+                match(rootLookup);
+            }
+            String localName = reader.getLocalName();
+            String namespace = reader.getNamespaceURI();
+            if (namespace != null) {
+                Map<String, List<Lookup>> byLocalName = lookupsByNamespace.get(namespace);
+                if (byLocalName != null) {
+                    match(byLocalName.get(localName));
+                }
+            }
+            String prefix = reader.getPrefix();
+            if (prefix == null || prefix.isEmpty()) {
+                match(unprefixedLookups.get(localName));
+            }
+
+            // Opened only now, since parents are taken as they were before this element: a lookup never
+            // matches its own scope element
+            for (Match match : started) {
+                open[match.lookup.index].add(match);
+                openMatches.add(match);
+            }
+            started.clear();
+        }
+
+        private void match(List<Lookup> lookups) {
+            if (lookups == null) {
+                return;
+            }
+            for (Lookup lookup : lookups) {
+                match(lookup);
+            }
+        }
+
+        private void match(Lookup lookup) {
+            Match match = null;
+            for (Match parent : open[lookup.parent.index]) {
+                if (!lookup.all && parent.first[lookup.slot] != null) {
+                    continue;
+                }
+                if (match == null) {
+                    // One element can satisfy several lookups (e.g. a nested route element), so its capture is shared
+                    if (capture == null) {
+                        capture = new Capture(reader, depth);
+                    }
+                    match = new Match(lookup, capture);
+                    started.add(match);
+                }
+                if (lookup.all) {
+                    parent.add(lookup, match);
+                } else {
+                    parent.first[lookup.slot] = match;
+                }
+            }
+            if (match != null && lookup.captureText && capture.text == null) {
+                capture.text = new StringBuilder();
+                openText.add(capture);
+            }
+        }
+
+        // Everything opened at this depth is at the end of the lists, deeper matches are closed already
+        private void endElement() {
+            while (!openMatches.isEmpty() && openMatches.get(openMatches.size() - 1).capture.depth == depth) {
+                Match match = openMatches.remove(openMatches.size() - 1);
+                List<Match> matches = open[match.lookup.index];
+                matches.remove(matches.size() - 1);
+            }
+            while (!openText.isEmpty() && openText.get(openText.size() - 1).depth == depth) {
+                openText.remove(openText.size() - 1);
+            }
+        }
+    }
+}
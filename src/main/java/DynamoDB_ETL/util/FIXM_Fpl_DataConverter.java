@@ -1,36 +1,90 @@
 package DynamoDB_ETL.util;
 
 import com.google.gson.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import java.io.InputStream;
 import java.io.StringReader;
 import java.util.HashMap;
 import java.util.Map;
 
+import static DynamoDB_ETL.util.FIXM_FieldMapping.attribute;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.each;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.keyed;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.object;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.text;
+
 public class FIXM_Fpl_DataConverter {
 
+    private static final Logger LOG = LoggerFactory.getLogger(FIXM_Fpl_DataConverter.class);
+
     private static final Map<String, String> NAMESPACE = new HashMap<String, String>() {{
         put("fx", "http://www.fixm.aero/flight/4.1");
         put("fb", "http://www.fixm.aero/base/4.1");
     }};
 
     public static String convertFIXMFplXmlToJson(String xmlStr) {
+        JsonObject flight = convertFIXMFplXml(xmlStr);
+        return flight != null ? flight.toString() : null;
+    }
+
+    // Same content as convertFIXMFplXmlToJson as a DynamoDB item (nulls kept as "null"). The DOM path still
+    // builds the JsonObject first; the stax path below writes the item directly.
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItem(String xmlStr) {
+        return convertFIXMFplXmlToItem(xmlStr, Map.of());
+    }
+
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItem(String xmlStr, Map<String, AttributeValue> metadata) {
+        return toItem(convertFIXMFplXml(xmlStr), metadata);
+    }
+
+    // Same for a raw message body, parsed from its bytes without a String copy
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItem(InputStream xml) {
+        return convertFIXMFplXmlToItem(xml, Map.of());
+    }
+
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItem(InputStream xml, Map<String, AttributeValue> metadata) {
+        return toItem(convertFIXMFplXml(xml), metadata);
+    }
+
+    private static Map<String, AttributeValue> toItem(JsonObject flight, Map<String, AttributeValue> metadata) {
+        if (flight == null) {
+            return null;
+        }
+        Map<String, AttributeValue> item = DynamoDB_AttributeValueConverter.fromJsonObject(flight, true);
+        item.putAll(metadata);
+        return item;
+    }
+
+    private static JsonObject convertFIXMFplXml(String xmlStr) {
+        Document document;
+        try {
+            document = XML_ParserProvider.parseDocument(xmlStr);
+        } catch (Exception e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+        return convertFIXMFplDocument(document);
+    }
+
+    private static JsonObject convertFIXMFplXml(InputStream xml) {
         Document document;
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            document = builder.parse(new InputSource(new StringReader(xmlStr)));
+            document = XML_ParserProvider.parseDocument(xml);
         } catch (Exception e) {
-            System.err.println("Error parsing XML: " + e.getMessage());
+            LOG.warn("Error parsing XML: {}", e.getMessage());
             return null;
         }
+        return convertFIXMFplDocument(document);
+    }
 
+    private static JsonObject convertFIXMFplDocument(Document document) {
         Element flightElem = document.getDocumentElement();
         JsonObject flight = new JsonObject();
 
@@ -206,9 +260,116 @@ public class FIXM_Fpl_DataConverter {
             flight.add("filed", filed);
         }
 
-        return flight.toString();
+        return flight;
+    }
+
+    // Single-pass StAX variant of convertFIXMFplXmlToJson, driven by FPL_MAPPING below. Produces the same JSON:
+    // every lookup keeps the DOM semantics of "first matching descendant of the enclosing element", so the two
+    // can be compared directly.
+    public static String convertFIXMFplXmlToJsonStax(String xmlStr) {
+        JsonObject flight = convertFIXMFplXmlStax(xmlStr);
+        return flight != null ? flight.toString() : null;
+    }
+
+    // The item in the same pass, without the JsonObject, starting from the message metadata
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItemStax(String xmlStr) {
+        return convertFIXMFplXmlToItemStax(xmlStr, Map.of());
+    }
+
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItemStax(String xmlStr, Map<String, AttributeValue> metadata) {
+        try {
+            return FPL_MAPPING.mapToItem(new StringReader(xmlStr), true, metadata);
+        } catch (XMLStreamException e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItemStax(InputStream xml) {
+        return convertFIXMFplXmlToItemStax(xml, Map.of());
     }
 
+    public static Map<String, AttributeValue> convertFIXMFplXmlToItemStax(InputStream xml, Map<String, AttributeValue> metadata) {
+        try {
+            return FPL_MAPPING.mapToItem(xml, true, metadata);
+        } catch (XMLStreamException e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static JsonObject convertFIXMFplXmlStax(String xmlStr) {
+        try {
+            return FPL_MAPPING.map(new StringReader(xmlStr));
+        } catch (XMLStreamException e) {
+            LOG.warn("Error parsing XML: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // The fields of convertFIXMFplXml as a mapping, compiled once
+    private static final FIXM_FieldMapping FPL_MAPPING = FIXM_FieldMapping.forDocumentElement(NAMESPACE,
+            text("gufi", "fx:gufi"),
+            attribute("aircraftIdentification", "fx:flightIdentification", "aircraftIdentification"),
+            attribute("flightType", "flightType"),
+            attribute("gufiOriginator", "fx:gufiOriginator", "name"),
+            attribute("operator", "fb:operatingOrganization", "name"),
+            attribute("remarks", "remarks"),
+            object("aircraft", "fx:aircraft",
+                    attribute("aircraftAddress", "aircraftAddress"),
+                    attribute("aircraftApproachCategory", "aircraftApproachCategory"),
+                    attribute("registration", "registration"),
+                    attribute("wakeTurbulence", "wakeTurbulence"),
+                    attribute("aircraftType", "fx:type", "icaoAircraftTypeDesignator").omitIfNull(),
+                    object("capabilities", "fx:capabilities",
+                            attribute("standardCapabilities", "standardCapabilities"),
+                            object("communication", "fx:communication",
+                                    attribute("otherDatalinkCapabilities", "otherDatalinkCapabilities"),
+                                    attribute("selectiveCallingCode", "selectiveCallingCode"),
+                                    text("communicationCapabilityCode", "fx:communicationCapabilityCode"),
+                                    text("datalinkCommunicationCapabilityCode", "fx:datalinkCommunicationCapabilityCode")),
+                            object("navigation", "fx:navigation",
+                                    attribute("otherNavigationCapabilities", "otherNavigationCapabilities"),
+                                    text("navigationCapabilityCode", "fx:navigationCapabilityCode"),
+                                    text("performanceBasedCode", "fx:performanceBasedCode")),
+                            object("surveillance", "fx:surveillance",
+                                    attribute("otherSurveillanceCapabilities", "otherSurveillanceCapabilities"),
+                                    text("surveillanceCapabilityCode", "fx:surveillanceCapabilityCode")))),
+            object("arrival", "fx:arrival",
+                    attribute("destinationAerodrome", "fx:destinationAerodrome", "locationIndicator"),
+                    attribute("destinationAerodromeAlternate", "fx:destinationAerodromeAlternate", "locationIndicator")),
+            object("departure", "fx:departure",
+                    attribute("estimatedOffBlockTime", "estimatedOffBlockTime"),
+                    // Unprefixed, as the DOM lookup is getElementsByTagName("departure")
+                    attribute("actualTimeOfDeparture", "departure", "actualTimeOfDeparture"),
+                    attribute("departureAerodrome", "fx:aerodrome", "locationIndicator")),
+            object("filed", "fx:filed",
+                    object("routeInformation", "fx:routeInformation",
+                            attribute("flightRulesCategory", "flightRulesCategory"),
+                            attribute("routeText", "routeText"),
+                            attribute("totalEstimatedElapsedTime", "totalEstimatedElapsedTime"),
+                            object("cruisingLevel", "fb:flightLevel",
+                                    text("value"),
+                                    attribute("uom", "uom")),
+                            object("cruisingSpeed", "fx:cruisingSpeed",
+                                    text("value"),
+                                    attribute("uom", "uom")),
+                            keyed("estimatedElapsedTime", "fx:estimatedElapsedTime", "elapsedTime",
+                                    attribute("elapsedTime", "elapsedTime"),
+                                    text("region", "fx:region").orElse("unknown"))).always(),
+                    keyed("element", "fx:element", "seqNum",
+                            text("routeDesignator", "fx:routeDesignator").omitIfNull(),
+                            attribute("routePoint", "fx:routePoint", "designator").omitIfNull(),
+                            // The two names holding a "/" never match an element, as in the DOM lookups
+                            text("standardInstrumentArrival", "fx:routeDesignatorToNextElement/fx:standardInstrumentArrival").omitIfNull(),
+                            each("fx:routeChange",
+                                    object("speedChange", "fx:speed",
+                                            text("value"),
+                                            attribute("uom", "uom")),
+                                    object("flightLevelChange", "fx:level/fb:flightLevel",
+                                            text("value"),
+                                            attribute("uom", "uom")))).omitEmpty()));
+
     // Helper functions
     private static String getAttribute(Element element, String attribute) {
         return element != null ? element.getAttribute(attribute) : null;
@@ -234,7 +395,7 @@ public class FIXM_Fpl_DataConverter {
 
         String namespace = NAMESPACE.get(parts[0]);
         if (namespace == null) {
-            System.err.println("Namespace not found for prefix: " + parts[0]);
+            LOG.error("Namespace not found for prefix: {}", parts[0]);
             return null;
         }
 
@@ -251,7 +412,7 @@ public class FIXM_Fpl_DataConverter {
 
         String namespace = NAMESPACE.get(parts[0]);
         if (namespace == null) {
-            System.err.println("Namespace not found for prefix: " + parts[0]);
+            LOG.error("Namespace not found for prefix: {}", parts[0]);
             return null;
         }
 
@@ -0,0 +1,97 @@
+package DynamoDB_ETL.util;
+
+// Finds the gufi of a FIXM message in its raw text without parsing it, so the consumer can order the messages
+// of one flight before a worker converts them. Takes the text of the first gufi element, with any namespace
+// prefix; null if there is none or it is empty. The gufi is ASCII, so a UTF-8 body is read byte by byte.
+public class FIXM_GufiScanner {
+
+    private static final String ELEMENT = "gufi";
+
+    public static String gufi(String xml) {
+        return xml != null ? gufi(xml, xml.length()) : null;
+    }
+
+    public static String gufi(byte[] content, int length) {
+        return content != null ? gufi(new AsciiView(content), length) : null;
+    }
+
+    private static String gufi(CharSequence xml, int length) {
+        for (int at = indexOf(xml, length, 0); at >= 0; at = indexOf(xml, length, at + ELEMENT.length())) {
+            int end = at + ELEMENT.length();
+            if (end >= length || !isStartTag(xml, at) || (xml.charAt(end) != '>' && !Character.isWhitespace(xml.charAt(end)))) {
+                continue;
+            }
+            int textStart = end;
+            while (textStart < length && xml.charAt(textStart) != '>') {
+                textStart++;
+            }
+            if (textStart >= length || xml.charAt(textStart - 1) == '/') {
+                return null;
+            }
+            int textEnd = ++textStart;
+            while (textEnd < length && xml.charAt(textEnd) != '<') {
+                textEnd++;
+            }
+            String gufi = xml.subSequence(textStart, textEnd).toString().trim();
+            return gufi.isEmpty() ? null : gufi;
+        }
+        return null;
+    }
+
+    // <gufi or <prefix:gufi, not </gufi or an attribute or text that happens to contain the word
+    private static boolean isStartTag(CharSequence xml, int at) {
+        int i = at - 1;
+        if (i >= 0 && xml.charAt(i) == ':') {
+            i--;
+            while (i >= 0 && isNameChar(xml.charAt(i))) {
+                i--;
+            }
+        }
+        return i >= 0 && xml.charAt(i) == '<';
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.';
+    }
+
+    private static int indexOf(CharSequence xml, int length, int from) {
+        outer:
+        for (int i = from; i <= length - ELEMENT.length(); i++) {
+            for (int j = 0; j < ELEMENT.length(); j++) {
+                if (xml.charAt(i + j) != ELEMENT.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    // Bytes as ISO-8859-1 chars, without copying them into a String first
+    private static class AsciiView implements CharSequence {
+        private final byte[] content;
+
+        AsciiView(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public int length() {
+            return content.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (content[index] & 0xff);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            char[] chars = new char[end - start];
+            for (int i = start; i < end; i++) {
+                chars[i - start] = charAt(i);
+            }
+            return new String(chars);
+        }
+    }
+}
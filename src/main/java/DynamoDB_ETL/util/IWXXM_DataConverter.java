@@ -1,106 +1,484 @@
 package DynamoDB_ETL.util;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
-import org.w3c.dom.Document;
-import org.w3c.dom.NamedNodeMap;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.StringReader;
+import org.apache.commons.io.input.CharSequenceInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class IWXXM_DataConverter {
 
+    private static final Logger LOG = LoggerFactory.getLogger(IWXXM_DataConverter.class);
+
+    private static final String DECODED_DATA_ENCODING = "gzip+json";
+
+    // Replacements for the ASCII characters Gson's JsonWriter escapes
+    private static final String[] JSON_ESCAPES = new String[128];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            JSON_ESCAPES[c] = String.format("\\u%04x", c);
+        }
+        JSON_ESCAPES['"'] = "\\\"";
+        JSON_ESCAPES['\\'] = "\\\\";
+        JSON_ESCAPES['\t'] = "\\t";
+        JSON_ESCAPES['\b'] = "\\b";
+        JSON_ESCAPES['\n'] = "\\n";
+        JSON_ESCAPES['\r'] = "\\r";
+        JSON_ESCAPES['\f'] = "\\f";
+    }
+
     public static String convertIWXXMXmlToJson(String xmlContent, String id, String logTimestamp) {
+        String base64Content = extractBase64Content(xmlContent);
+        return base64Content != null ? convertIWXXMBase64ToJson(base64Content, id, logTimestamp) : null;
+    }
+
+    // Same content as convertIWXXMXmlToJson, built straight into a DynamoDB item
+    public static Map<String, AttributeValue> convertIWXXMXmlToItem(String xmlContent, String id, String logTimestamp) {
+        String base64Content = extractBase64Content(xmlContent);
+        return base64Content != null ? convertIWXXMBase64ToItem(base64Content, id, logTimestamp) : null;
+    }
+
+    // For callers that already parsed the message envelope and hold properties.content.value
+    public static String convertIWXXMBase64ToJson(String base64Content, String id, String logTimestamp) {
+        Map<String, Object> decodedData = convertIWXXMBase64(base64Content, null, JSON_VALUES);
+        if (decodedData == null) {
+            return null;
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\"id\":");
+        appendJson(json, id);
+        json.append(",\"logTimestamp\":");
+        appendJson(json, logTimestamp);
+        json.append(",\"decodedData\":");
+        appendJson(json, decodedData);
+        return json.append('}').toString();
+    }
+
+    public static Map<String, AttributeValue> convertIWXXMBase64ToItem(String base64Content, String id, String logTimestamp) {
+        Map<String, AttributeValue> decodedData = convertIWXXMBase64(base64Content, null, ATTRIBUTE_VALUES);
+        if (decodedData == null) {
+            return null;
+        }
+
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("id", AttributeValue.builder().s(String.valueOf(id)).build());
+        item.put("logTimestamp", AttributeValue.builder().s(String.valueOf(logTimestamp)).build());
+        item.put("decodedData", AttributeValue.builder().m(decodedData).build());
+        return item;
+    }
+
+    // Storage form for large bulletins: searchable header fields as top-level attributes and the whole
+    // decodedData tree as gzip-compressed JSON in a B attribute, inflated only when read (readDecodedData)
+    public static Map<String, AttributeValue> convertIWXXMXmlToCompressedItem(String xmlContent, String id, String logTimestamp) {
+        String base64Content = extractBase64Content(xmlContent);
+        return base64Content != null ? convertIWXXMBase64ToCompressedItem(base64Content, id, logTimestamp) : null;
+    }
+
+    public static Map<String, AttributeValue> convertIWXXMBase64ToCompressedItem(String base64Content, String id, String logTimestamp) {
+        String[] rootName = new String[1];
+        Map<String, Object> decodedData = convertIWXXMBase64(base64Content, rootName, JSON_VALUES);
+        if (decodedData == null) {
+            return null;
+        }
+
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("id", AttributeValue.builder().s(String.valueOf(id)).build());
+        item.put("logTimestamp", AttributeValue.builder().s(String.valueOf(logTimestamp)).build());
+        if (rootName[0] != null) {
+            putHeader(item, "reportType", rootName[0].substring(rootName[0].indexOf(':') + 1));
+        }
+        putHeader(item, "reportStatus", textAt(decodedData, "reportStatus"));
+        putHeader(item, "issueTime", textAt(decodedData,
+                "iwxxm:issueTime", "gml:TimeInstant", "gml:timePosition", "value"));
+        putHeader(item, "aerodrome", textAt(decodedData, "iwxxm:aerodrome", "aixm:AirportHeliport", "aixm:timeSlice",
+                "aixm:AirportHeliportTimeSlice", "aixm:locationIndicatorICAO", "value"));
+
+        StringBuilder json = new StringBuilder();
+        appendJson(json, decodedData);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(json.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            LOG.error("Failed to compress IWXXM decodedData for {}: {}", id, e.getMessage(), e);
+            return null;
+        }
+        item.put("decodedData", AttributeValue.builder().b(SdkBytes.fromByteArrayUnsafe(compressed.toByteArray())).build());
+        item.put("decodedDataEncoding", AttributeValue.builder().s(DECODED_DATA_ENCODING).build());
+        return item;
+    }
+
+    // decodedData of an item written by convertIWXXMBase64ToCompressedItem, or null if it is stored as a map
+    public static JsonObject readDecodedData(Map<String, AttributeValue> item) throws IOException {
+        AttributeValue decodedData = item.get("decodedData");
+        if (decodedData == null || decodedData.b() == null) {
+            return null;
+        }
+        try (Reader reader = new InputStreamReader(
+                new GZIPInputStream(decodedData.b().asInputStream()), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        }
+    }
+
+    private static void putHeader(Map<String, AttributeValue> item, String name, String value) {
+        if (value != null) {
+            item.put(name, AttributeValue.builder().s(value).build());
+        }
+    }
+
+    // Follows child names from the root; a repeated element is followed through its first occurrence
+    private static String textAt(Map<String, Object> decodedData, String... path) {
+        Object current = decodedData;
+        for (String name : path) {
+            if (current instanceof List<?> elements && !elements.isEmpty()) {
+                current = elements.get(0);
+            }
+            if (!(current instanceof Map<?, ?> members) || !members.containsKey(name)) {
+                return null;
+            }
+            current = members.get(name);
+        }
+        return current instanceof String value ? value : null;
+    }
+
+    private static String extractBase64Content(String xmlContent) {
         try {
-            // Parse to extract Base64 content
-            JsonObject jsonObject = JsonParser.parseString(xmlContent).getAsJsonObject();
-            String base64Content = jsonObject
+            return JsonParser.parseString(xmlContent).getAsJsonObject()
                     .getAsJsonObject("properties")
                     .getAsJsonObject("content")
                     .get("value")
                     .getAsString();
+        } catch (Exception e) {
+            LOG.warn("No IWXXM content found in message: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    // Null if the Base64 payload cannot be decoded; XML that cannot be parsed gives an empty decodedData
+    private static <V> Map<String, V> convertIWXXMBase64(String base64Content, String[] rootName, TreeBuilder<V> values) {
+        // Decode Base64 content while the XML reader consumes it, so the decoded document is never held as a whole
+        DecodingInputStream decodedXml = new DecodingInputStream(
+                new CharSequenceInputStream(base64Content, StandardCharsets.US_ASCII));
 
-            // Decode Base64 content
-            String decodedXml = new String(Base64.getDecoder().decode(base64Content));
+        Map<String, V> decodedData = convertXmlToMap(decodedXml, rootName, values);
+        if (decodedXml.decodeFailure != null) {
+            LOG.warn("Error decoding IWXXM Base64 content: {}", decodedXml.decodeFailure.getMessage());
+            return null;
+        }
+        return decodedData;
+    }
 
-            // Convert the XML content to a JSON object
-            JsonObject iwxxmDataJson = convertXmlToJson(decodedXml);
+    // Builds the decodedData map while reading, straight into the output values (for items: objects M, repeated
+    // elements L, text and attributes S) with one Level of state per open element. Names stay qualified (e.g.
+    // "iwxxm:METAR") and xmlns declarations are kept as attributes, as with the non-namespace-aware
+    // DocumentBuilder this replaced. The root element's own name is not part of the map; it is handed back
+    // through rootName if that is given.
+    private static <V> Map<String, V> convertXmlToMap(InputStream xmlContent, String[] rootName, TreeBuilder<V> values) {
+        Map<String, V> decodedData = new LinkedHashMap<>();
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_ParserProvider.createNonNamespaceAwareStreamReader(xmlContent);
 
-            // Create the final JSON structure
-            JsonObject finalJsonObject = new JsonObject();
-            finalJsonObject.addProperty("id", id);
-            finalJsonObject.addProperty("logTimestamp", logTimestamp);
-            finalJsonObject.add("decodedData", iwxxmDataJson);
+            Deque<Level<V>> open = new ArrayDeque<>();
+            StringBuilder text = new StringBuilder();
+            Map<String, V> root = null;
 
-            return finalJsonObject.toString();
+            while (reader.hasNext()) {
+                int event = reader.next();
+                switch (event) {
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.SPACE:
+                        if (!open.isEmpty()) {
+                            text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        }
+                        break;
+                    case XMLStreamConstants.START_ELEMENT:
+                        flushText(open, text);
+                        open.push(new Level<>(reader, values));
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        flushText(open, text);
+                        Map<String, V> members = open.pop().finish();
+                        if (open.isEmpty()) {
+                            root = members;
+                            if (rootName != null) {
+                                rootName[0] = qualifiedName(reader.getPrefix(), reader.getLocalName());
+                            }
+                        } else {
+                            open.peek().addChild(qualifiedName(reader.getPrefix(), reader.getLocalName()),
+                                    values.object(members));
+                        }
+                        break;
+                    default:
+                        // Comments, processing instructions and CDATA end the current text node without joining it
+                        flushText(open, text);
+                        break;
+                }
+            }
 
+            if (root != null) {
+                decodedData = root;
+            }
         } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            LOG.warn("Error parsing IWXXM XML: {}", e.getMessage());
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                }
+            }
         }
+        return decodedData;
     }
 
-    private static JsonObject convertXmlToJson(String xmlContent) {
-        JsonObject jsonObject = new JsonObject();
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            InputSource is = new InputSource(new StringReader(xmlContent));
-            Document doc = builder.parse(is);
-            doc.getDocumentElement().normalize();
+    private static <V> void flushText(Deque<Level<V>> open, StringBuilder text) {
+        if (text.length() == 0) {
+            return;
+        }
+        String value = text.toString().trim();
+        text.setLength(0);
+        if (!value.isEmpty()) {
+            open.peek().setValue(value);
+        }
+    }
 
-            jsonObject = convertNodeToJson(doc.getDocumentElement());
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return jsonObject;
-    }
-
-    private static JsonObject convertNodeToJson(Node node) {
-        JsonObject jsonObject = new JsonObject();
-
-        // Add attributes
-        if (node.hasAttributes()) {
-            NamedNodeMap nodeMap = node.getAttributes();
-            for (int i = 0; i < nodeMap.getLength(); i++) {
-                Node attribute = nodeMap.item(i);
-                jsonObject.addProperty(attribute.getNodeName(), attribute.getNodeValue());
-            }
-        }
-
-        // Add child nodes
-        NodeList nodeList = node.getChildNodes();
-        for (int i = 0; i < nodeList.getLength(); i++) {
-            Node childNode = nodeList.item(i);
-            if (childNode.getNodeType() == Node.ELEMENT_NODE) {
-                JsonObject childJson = convertNodeToJson(childNode);
-                if (jsonObject.has(childNode.getNodeName())) {
-                    // If a node with this name already exists, convert it to an array
-                    JsonElement existingElement = jsonObject.get(childNode.getNodeName());
-                    if (existingElement.isJsonArray()) {
-                        existingElement.getAsJsonArray().add(childJson);
-                    } else {
-                        JsonObject firstChild = existingElement.getAsJsonObject();
-                        jsonObject.remove(childNode.getNodeName());
-                        JsonArray array = new JsonArray();
-                        array.add(firstChild);
-                        array.add(childJson);
-                        jsonObject.add(childNode.getNodeName(), array);
-                    }
-                } else {
-                    jsonObject.add(childNode.getNodeName(), childJson);
+    // Members of one open element in JSON order. A name seen a second time becomes a list, which then takes the
+    // position of that second occurrence; its occurrences are collected in `repeated` and only turned into an L
+    // when the element ends, instead of rebuilding the array for every sibling.
+    private static final class Level<V> {
+        final TreeBuilder<V> values;
+        final Map<String, V> members = new LinkedHashMap<>();
+        Map<String, List<V>> repeated;
+
+        // Attributes come first, in the name order a DOM NamedNodeMap returns them
+        Level(XMLStreamReader reader, TreeBuilder<V> values) {
+            this.values = values;
+            int count = reader.getAttributeCount();
+            if (count > 0) {
+                List<String[]> attributes = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    attributes.add(new String[]{
+                            qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                            reader.getAttributeValue(i)});
+                }
+                attributes.sort((a, b) -> a[0].compareTo(b[0]));
+                for (String[] attribute : attributes) {
+                    members.put(attribute[0], values.string(attribute[1]));
+                }
+            }
+        }
+
+        void addChild(String name, V child) {
+            List<V> occurrences = repeated != null ? repeated.get(name) : null;
+            if (occurrences != null) {
+                occurrences.add(child);
+                return;
+            }
+            V existing = members.putIfAbsent(name, child);
+            if (existing == null) {
+                return;
+            }
+            if (!values.isObject(existing)) {
+                // An element named like an attribute or the text "value": fails the whole conversion, as it
+                // always has
+                throw new IllegalStateException("Not a JSON Object: " + name);
+            }
+            occurrences = new ArrayList<>();
+            occurrences.add(existing);
+            occurrences.add(child);
+            if (repeated == null) {
+                repeated = new HashMap<>();
+            }
+            repeated.put(name, occurrences);
+            members.remove(name);
+            members.put(name, null);
+        }
+
+        // Replaces whatever is stored as "value" in place, a repeated "value" element included
+        void setValue(String value) {
+            if (repeated != null) {
+                repeated.remove("value");
+            }
+            members.put("value", values.string(value));
+        }
+
+        Map<String, V> finish() {
+            if (repeated != null) {
+                members.replaceAll((name, member) -> member != null ? member : values.list(repeated.get(name)));
+            }
+            return members;
+        }
+    }
+
+    // What the tree is built from: attribute values for items, plain maps, lists and strings for JSON output
+    private interface TreeBuilder<V> {
+        V string(String value);
+
+        V object(Map<String, V> members);
+
+        V list(List<V> elements);
+
+        boolean isObject(V value);
+    }
+
+    private static final TreeBuilder<AttributeValue> ATTRIBUTE_VALUES = new TreeBuilder<>() {
+        @Override
+        public AttributeValue string(String value) {
+            return AttributeValue.builder().s(value).build();
+        }
+
+        @Override
+        public AttributeValue object(Map<String, AttributeValue> members) {
+            return AttributeValue.builder().m(members).build();
+        }
+
+        @Override
+        public AttributeValue list(List<AttributeValue> elements) {
+            return AttributeValue.builder().l(elements).build();
+        }
+
+        @Override
+        public boolean isObject(AttributeValue value) {
+            return value.hasM();
+        }
+    };
+
+    private static final TreeBuilder<Object> JSON_VALUES = new TreeBuilder<>() {
+        @Override
+        public Object string(String value) {
+            return value;
+        }
+
+        @Override
+        public Object object(Map<String, Object> members) {
+            return members;
+        }
+
+        @Override
+        public Object list(List<Object> elements) {
+            return elements;
+        }
+
+        @Override
+        public boolean isObject(Object value) {
+            return value instanceof Map;
+        }
+    };
+
+    // decodedData as JSON, in the same form JsonObject.toString() gave it
+    private static void appendJson(StringBuilder json, Object value) {
+        if (value instanceof Map<?, ?> members) {
+            json.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> member : members.entrySet()) {
+                if (!first) {
+                    json.append(',');
+                }
+                first = false;
+                appendJson(json, (String) member.getKey());
+                json.append(':');
+                appendJson(json, member.getValue());
+            }
+            json.append('}');
+        } else if (value instanceof List<?> elements) {
+            json.append('[');
+            for (int i = 0; i < elements.size(); i++) {
+                if (i > 0) {
+                    json.append(',');
                 }
-            } else if (childNode.getNodeType() == Node.TEXT_NODE && !childNode.getNodeValue().trim().isEmpty()) {
-                jsonObject.addProperty("value", childNode.getNodeValue().trim());
+                appendJson(json, elements.get(i));
+            }
+            json.append(']');
+        } else {
+            appendJson(json, (String) value);
+        }
+    }
+
+    // Escapes what Gson's JsonWriter escapes (without HTML escaping)
+    private static void appendJson(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        int last = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement;
+            if (c < JSON_ESCAPES.length) {
+                replacement = JSON_ESCAPES[c];
+            } else if (c == '\u2028') {
+                replacement = "\\u2028";
+            } else if (c == '\u2029') {
+                replacement = "\\u2029";
+            } else {
+                replacement = null;
+            }
+            if (replacement == null) {
+                continue;
+            }
+            json.append(value, last, i).append(replacement);
+            last = i + 1;
+        }
+        json.append(value, last, value.length()).append('"');
+    }
+
+    private static String qualifiedName(String prefix, String localName) {
+        return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+    }
+
+    // Base64 errors surface as IOExceptions inside the XML reader; remember them so a bad payload still fails the
+    // whole message instead of being stored as empty decodedData
+    private static final class DecodingInputStream extends FilterInputStream {
+        IOException decodeFailure;
+
+        DecodingInputStream(InputStream base64) {
+            super(Base64.getDecoder().wrap(base64));
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                decodeFailure = e;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                decodeFailure = e;
+                throw e;
             }
         }
-        return jsonObject;
     }
 }
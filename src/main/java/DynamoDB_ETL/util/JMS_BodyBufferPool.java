@@ -0,0 +1,50 @@
+package DynamoDB_ETL.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Reusable byte arrays that BytesMessage bodies are read into, so receiving a message does not allocate a
+// fresh body-sized array. A buffer is lent to one worker for one message and handed back once the message
+// is converted. A pool rather than a ThreadLocal, as in XML_ParserProvider, since the consumers run every
+// message on a fresh virtual thread.
+public class JMS_BodyBufferPool {
+
+    private static final int MIN_BUFFER_SIZE = 64 * 1024;
+
+    // Bodies larger than this get a buffer of their own that is not kept afterwards
+    private static final int MAX_POOLED_BUFFER_SIZE = 4 * 1024 * 1024;
+
+    // Buffers idle in the pool beyond this are dropped rather than kept
+    private static final int MAX_POOLED_BUFFERS = 256;
+
+    private static final Queue<byte[]> BUFFERS = new ConcurrentLinkedQueue<>();
+    // Kept next to the queue, whose size() walks every node
+    private static final AtomicInteger POOLED_BUFFERS = new AtomicInteger();
+
+    // A buffer of at least the given size; its contents are whatever the previous borrower left in it
+    public static byte[] borrow(int size) {
+        if (size <= MAX_POOLED_BUFFER_SIZE) {
+            byte[] buffer = BUFFERS.poll();
+            if (buffer != null) {
+                POOLED_BUFFERS.decrementAndGet();
+                if (buffer.length >= size) {
+                    return buffer;
+                }
+            }
+        }
+        // A pooled buffer that is too small is dropped, its replacement rounded up so it fits the next few bodies
+        return new byte[Math.max(MIN_BUFFER_SIZE, size > MAX_POOLED_BUFFER_SIZE ? size : Integer.highestOneBit(size - 1) << 1)];
+    }
+
+    public static void release(byte[] buffer) {
+        if (buffer.length > MAX_POOLED_BUFFER_SIZE) {
+            return;
+        }
+        if (POOLED_BUFFERS.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            BUFFERS.offer(buffer);
+        } else {
+            POOLED_BUFFERS.decrementAndGet();
+        }
+    }
+}
@@ -2,30 +2,37 @@ package DynamoDB_ETL.util;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 
 public class METReport_DataConverter {
 
-    public static String convertMETDataToJson(String id, String metarData) {
-        try {
-            ObjectMapper mapper = new ObjectMapper();
-            ObjectNode metReportJson = mapper.createObjectNode();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
-            // Add 'id' and 'datetime' to the JSON structure
-            metReportJson.put("id", id);
+    // Section keywords. None of them can overlap itself, so every occurrence found by a plain scan is also
+    // a match String.split would have found, whatever offset it started from.
+    private static final String[] KEYWORDS = {"WIND", "VIS", "CLD", "DP", "QNH", "TREND"};
+    private static final int WIND = 0, VIS = 1, CLD = 2, DP = 3, QNH = 4, TREND = 5;
 
-            // 1. Split the report into parts by keywords
-            String[] sections = splitByKeywords(metarData);
+    public static String convertMETDataToJson(String id, String metarData) {
+        try {
+            ObjectNode metReportJson = convertMETData(id, metarData);
+            return MAPPER.writerWithDefaultPrettyPrinter().writeValueAsString(metReportJson);
 
-            // 2. Extract each section's respective data
-            extractBasicReportData(sections[0], metReportJson);
-            extractRunwayWindData(sections[1], metReportJson);
-            extractRunwayVisibilityData(sections[2], metReportJson);
-            extractCloudCoverAndTempData(sections[3], metReportJson);
-            extractDewPointData(sections[4], metReportJson);
-            extractPressureData(sections[5], metReportJson);
-            extractTrendData(sections[6], metReportJson);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-            return mapper.writerWithDefaultPrettyPrinter().writeValueAsString(metReportJson);
+    // Same content as convertMETDataToJson, built straight into a DynamoDB item
+    public static Map<String, AttributeValue> convertMETDataToItem(String id, String metarData) {
+        try {
+            return DynamoDB_AttributeValueConverter.fromJsonNode(convertMETData(id, metarData));
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -33,67 +40,258 @@ public class METReport_DataConverter {
         }
     }
 
-    // Find sections using keywords as boundaries
+    private static ObjectNode convertMETData(String id, String metarData) {
+        ObjectNode metReportJson = MAPPER.createObjectNode();
+
+        // Add 'id' and 'datetime' to the JSON structure
+        metReportJson.put("id", id);
+
+        // 1. Split the report into parts by keywords
+        String[] sections = splitByKeywords(metarData);
+
+        // 2. Extract each section's respective data
+        extractBasicReportData(sections[0], metReportJson);
+        extractRunwayWindData(sections[1], metReportJson);
+        extractRunwayVisibilityData(sections[2], metReportJson);
+        extractCloudCoverAndTempData(sections[3], metReportJson);
+        extractDewPointData(sections[4], metReportJson);
+        extractPressureData(sections[5], metReportJson);
+        extractTrendData(sections[6], metReportJson);
+
+        return metReportJson;
+    }
+
+    // Find sections using keywords as boundaries. Each section keeps the exact bounds the former
+    // String.split chain produced: it starts after the first occurrence of its keyword, stops at a second
+    // occurrence of that keyword or at the first following end keyword, and fails where split would have.
     private static String[] splitByKeywords(String metarData) {
+        KeywordOffsets keywords = new KeywordOffsets(metarData);
         String[] sections = new String[7];
 
         // Basic Report data - ends at "WIND"
-        sections[0] = metarData.split("WIND")[0];
+        sections[0] = keywords.part(0, metarData.length(), WIND, 0);
 
         // Wind data - starts at "WIND", ends at "VIS"
-        if (metarData.contains("WIND")) {
-            sections[1] = metarData.split("WIND")[1].split("VIS")[0];
-        } else {
-            sections[1] = "";
-        }
+        sections[1] = keywords.contains(WIND) ? keywords.section(WIND, VIS) : "";
 
         // Visibility data - starts at "VIS", ends at "CLD"
-        if (metarData.contains("VIS")) {
-            sections[2] = metarData.split("VIS")[1].split("CLD")[0];
-        } else {
-            sections[2] = "";
-        }
+        sections[2] = keywords.contains(VIS) ? keywords.section(VIS, CLD) : "";
 
         // Cloud and Temperature data - starts at "CLD", ends at "DP"
-        if (metarData.contains("CLD")) {
-            sections[3] = metarData.split("CLD")[1].split("DP")[0];
-        } else {
-            sections[3] = "";
-        }
+        sections[3] = keywords.contains(CLD) ? keywords.section(CLD, DP) : "";
 
         // Dew point data - starts at "DP", ends at "QNH"
-        if (metarData.contains("DP")) {
-            sections[4] = metarData.split("DP")[1].split("QNH")[0];
-        } else {
-            sections[4] = "";
-        }
+        sections[4] = keywords.contains(DP) ? keywords.section(DP, QNH) : "";
 
         // Pressure data - starts at "QNH", ends at "TREND" (if present)
-        if (metarData.contains("QNH")) {
-            if (metarData.contains("TREND")) {
-                sections[5] = metarData.split("QNH")[1].split("TREND")[0];
-            } else {
-                sections[5] = metarData.split("QNH")[1];
-            }
+        if (keywords.contains(QNH)) {
+            sections[5] = keywords.contains(TREND)
+                    ? keywords.section(QNH, TREND)
+                    : keywords.part(0, metarData.length(), QNH, 1);
         } else {
             sections[5] = "";
         }
 
         // Trend data - starts at "TREND"
-        if (metarData.contains("TREND")) {
-            sections[6] = metarData.split("TREND")[1];
-        } else {
-            sections[6] = "";
-        }
+        sections[6] = keywords.contains(TREND) ? keywords.part(0, metarData.length(), TREND, 1) : "";
 
         return sections;
     }
 
+    // Offsets of every section keyword, collected in a single pass over the report
+    private static class KeywordOffsets {
+        final String text;
+        final int[][] offsets = new int[KEYWORDS.length][2];
+        final int[] counts = new int[KEYWORDS.length];
+
+        KeywordOffsets(String text) {
+            this.text = text;
+            for (int i = 0; i < text.length(); i++) {
+                // The keywords all start with a different letter
+                int keyword = switch (text.charAt(i)) {
+                    case 'W' -> WIND;
+                    case 'V' -> VIS;
+                    case 'C' -> CLD;
+                    case 'D' -> DP;
+                    case 'Q' -> QNH;
+                    case 'T' -> TREND;
+                    default -> -1;
+                };
+                if (keyword >= 0 && text.startsWith(KEYWORDS[keyword], i)) {
+                    if (counts[keyword] == offsets[keyword].length) {
+                        offsets[keyword] = Arrays.copyOf(offsets[keyword], counts[keyword] * 2);
+                    }
+                    offsets[keyword][counts[keyword]++] = i;
+                }
+            }
+        }
+
+        boolean contains(int keyword) {
+            return counts[keyword] > 0;
+        }
+
+        // text.split(startKeyword)[1].split(endKeyword)[0]
+        String section(int startKeyword, int endKeyword) {
+            int[] bounds = bounds(0, text.length(), startKeyword, 1);
+            return part(bounds[0], bounds[1], endKeyword, 0);
+        }
+
+        // text.substring(from, to).split(keyword)[index]
+        String part(int from, int to, int keyword, int index) {
+            int[] bounds = bounds(from, to, keyword, index);
+            return text.substring(bounds[0], bounds[1]);
+        }
+
+        private int[] bounds(int from, int to, int keyword, int index) {
+            int length = KEYWORDS[keyword].length();
+            int match = next(keyword, from, to);
+            if (match < 0) {
+                if (index == 0) {
+                    return new int[]{from, to};
+                }
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+
+            int start = from;
+            for (int i = 0; i < index; i++) {
+                if (match < 0) {
+                    throw new ArrayIndexOutOfBoundsException(index);
+                }
+                start = match + length;
+                match = next(keyword, start, to);
+            }
+            int end = match < 0 ? to : match;
+
+            // split drops trailing empty strings, so an empty part only exists if something follows it
+            if (start == end && onlyKeyword(keyword, start, to)) {
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+            return new int[]{start, end};
+        }
+
+        // First occurrence lying entirely within [from, to), or -1
+        private int next(int keyword, int from, int to) {
+            for (int i = 0; i < counts[keyword]; i++) {
+                int offset = offsets[keyword][i];
+                if (offset >= from) {
+                    return offset + KEYWORDS[keyword].length() <= to ? offset : -1;
+                }
+            }
+            return -1;
+        }
+
+        private boolean onlyKeyword(int keyword, int from, int to) {
+            int position = from;
+            while (position < to && next(keyword, position, to) == position) {
+                position += KEYWORDS[keyword].length();
+            }
+            return position == to;
+        }
+    }
+
+    // Same tokens as text.split("\\s+"): a leading empty token when the text starts with whitespace,
+    // no trailing empty tokens, and the text itself when it holds no whitespace at all
+    private static String[] splitOnWhitespace(String text) {
+        List<String> tokens = new ArrayList<>();
+        boolean matched = false;
+        int i = 0;
+
+        if (!text.isEmpty() && isWhitespace(text.charAt(0))) {
+            tokens.add("");
+        }
+        while (i < text.length()) {
+            while (i < text.length() && isWhitespace(text.charAt(i))) {
+                matched = true;
+                i++;
+            }
+            int start = i;
+            while (i < text.length() && !isWhitespace(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                tokens.add(text.substring(start, i));
+            }
+        }
+
+        if (!matched) {
+            return new String[]{text};
+        }
+        if (tokens.size() == 1 && tokens.get(0).isEmpty()) {
+            // Whitespace only: the leading empty token is also the trailing one
+            return new String[0];
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    // The characters regex \s matches
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    // Same parts as text.split(separator) for a literal separator
+    private static String[] splitOnLiteral(String text, String separator) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        int match;
+
+        while ((match = text.indexOf(separator, start)) >= 0) {
+            parts.add(text.substring(start, match));
+            start = match + separator.length();
+        }
+        if (parts.isEmpty()) {
+            return new String[]{text};
+        }
+        parts.add(text.substring(start));
+
+        int size = parts.size();
+        while (size > 0 && parts.get(size - 1).isEmpty()) {
+            size--;
+        }
+        return parts.subList(0, size).toArray(new String[0]);
+    }
+
+    // replaceAll("[^0-9]", "")
+    private static String digitsOf(String text) {
+        StringBuilder digits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.toString();
+    }
+
+    // replaceAll("[0-9]", "")
+    private static String nonDigitsOf(String text) {
+        StringBuilder nonDigits = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                nonDigits.append(c);
+            }
+        }
+        return nonDigits.toString();
+    }
+
+    // matches("^T\\d+$")
+    private static boolean isTemperature(String token) {
+        if (token.length() < 2 || token.charAt(0) != 'T') {
+            return false;
+        }
+        for (int i = 1; i < token.length(); i++) {
+            if (token.charAt(i) < '0' || token.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
 
     private static void extractBasicReportData(String line, ObjectNode metReportJson) {
         //System.out.println("Processing Basic Report Details: " + line); ERROR CHECK
 
-        String[] firstLineParts = line.trim().split("\\s+");
+        String[] firstLineParts = splitOnWhitespace(line.trim());
         if (firstLineParts.length >= 3) {
             // String reportType = firstLineParts[0];
             String station = firstLineParts[1];
@@ -110,18 +308,17 @@ public class METReport_DataConverter {
 
     private static void extractRunwayWindData(String line, ObjectNode metReportJson) {
         //System.out.println("Processing WIND: " + line); ERROR CHECK
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode windDataNode = mapper.createObjectNode();
+        ObjectNode windDataNode = MAPPER.createObjectNode();
 
         // Split wind data into runway-specific sections
-        String[] runwayWindParts = line.split("RWY");
+        String[] runwayWindParts = splitOnLiteral(line, "RWY");
 
         for (String runwayWindPart : runwayWindParts) {
             if (!runwayWindPart.trim().isEmpty()) {
-                String[] parts = runwayWindPart.trim().split("\\s+");
+                String[] parts = splitOnWhitespace(runwayWindPart.trim());
                 if (parts.length >= 3) {
                     String runway = "RWY " + parts[0]; // Extract the runway (e.g., 02L, 02C)
-                    ObjectNode windDetails = mapper.createObjectNode();
+                    ObjectNode windDetails = MAPPER.createObjectNode();
 
                     String tdz = "", mid = "", end = "";
                     String tdzVRB = "", midVRB = "", endVRB = "";
@@ -210,17 +407,16 @@ public class METReport_DataConverter {
 
 
     private static ObjectNode parseWindValue(String windValue) {
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode windNode = mapper.createObjectNode();
+        ObjectNode windNode = MAPPER.createObjectNode();
 
         if (windValue.contains("/")) {
-            String[] parts = windValue.split("/");
+            String[] parts = splitOnLiteral(windValue, "/");
             if (parts.length == 2) {
                 String angle = parts[0];
                 String speed = parts[1];
 
-                String numberPortion = speed.replaceAll("[^0-9]", "");
-                String unitPortion = speed.replaceAll("[0-9]", "");
+                String numberPortion = digitsOf(speed);
+                String unitPortion = nonDigitsOf(speed);
 
                 windNode.put("windDirection", angle);
                 windNode.put("windSpeed", numberPortion);
@@ -233,15 +429,14 @@ public class METReport_DataConverter {
 
 
     private static ObjectNode parseVariableWindValue(String vrbValue) {
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode vrbNode = mapper.createObjectNode();
+        ObjectNode vrbNode = MAPPER.createObjectNode();
 
         if (vrbValue.contains("BTN")) {
             // return VRB BTN 100/ AND 130/ to parser (.contains("BTN") should be first)
-            String[] parts = vrbValue.replace("VRB BTN", "").split("AND");
+            String[] parts = splitOnLiteral(vrbValue.replace("VRB BTN", ""), "AND");
             if (parts.length == 2) {
-                String direction1 = parts[0].split("/")[0].trim();
-                String direction2 = parts[1].split("/")[0].trim();
+                String direction1 = splitOnLiteral(parts[0], "/")[0].trim();
+                String direction2 = splitOnLiteral(parts[1], "/")[0].trim();
 
                 vrbNode.put("variableWindDirection", direction1 + "-" + direction2);
             }
@@ -249,14 +444,14 @@ public class METReport_DataConverter {
 
         else if (vrbValue.contains("AND")) {
             // return 100/ AND 130/2KT to parser (.contains("AND") should be second)
-            String[] vrbParts = vrbValue.split("AND");
+            String[] vrbParts = splitOnLiteral(vrbValue, "AND");
             if (vrbParts.length == 2) {
-                String direction1 = vrbParts[0].split("/")[0].trim();
-                String direction2 = vrbParts[1].split("/")[0].trim();
-                String speed = vrbParts[1].split("/")[1].trim();
+                String direction1 = splitOnLiteral(vrbParts[0], "/")[0].trim();
+                String direction2 = splitOnLiteral(vrbParts[1], "/")[0].trim();
+                String speed = splitOnLiteral(vrbParts[1], "/")[1].trim();
 
-                String numberPortion = speed.replaceAll("[^0-9]", "");
-                String unitPortion = speed.replaceAll("[0-9]", "");
+                String numberPortion = digitsOf(speed);
+                String unitPortion = nonDigitsOf(speed);
 
                 vrbNode.put("variableWindDirection", direction1 + "-" + direction2);
                 vrbNode.put("variableWindSpeed", numberPortion);
@@ -268,8 +463,8 @@ public class METReport_DataConverter {
             // return VRB3KT to parser (.contains("KT") should be last)
             String speed = vrbValue.replace("VRB", "").trim();
 
-            String numberPortion = speed.replaceAll("[^0-9]", "");
-            String unitPortion = speed.replaceAll("[0-9]", "");
+            String numberPortion = digitsOf(speed);
+            String unitPortion = nonDigitsOf(speed);
 
             vrbNode.put("variableWindSpeed", numberPortion);
             vrbNode.put("variableWindSpeedUom", unitPortion);
@@ -280,18 +475,17 @@ public class METReport_DataConverter {
 
 
     private static void extractRunwayVisibilityData(String line, ObjectNode metReportJson) {
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode visData = mapper.createObjectNode();
+        ObjectNode visData = MAPPER.createObjectNode();
 
-        String[] runwayParts = line.split("RWY");
+        String[] runwayParts = splitOnLiteral(line, "RWY");
 
         for (String runwayPart : runwayParts) {
             if (!runwayPart.trim().isEmpty()) {
-                String[] parts = runwayPart.trim().split("\\s+");
+                String[] parts = splitOnWhitespace(runwayPart.trim());
 
                 String runway = "RWY " + parts[0];
 
-                ObjectNode visibilityDetails = mapper.createObjectNode();
+                ObjectNode visibilityDetails = MAPPER.createObjectNode();
 
                 String tdz = "", mid = "", end = "";
 
@@ -327,11 +521,10 @@ public class METReport_DataConverter {
     }
 
     private static ObjectNode parseVisibilityValue(String visibilityValue) {
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode visibilityNode = mapper.createObjectNode();
+        ObjectNode visibilityNode = MAPPER.createObjectNode();
 
-        String numberPortion = visibilityValue.replaceAll("[^0-9]", "");
-        String unitPortion = visibilityValue.replaceAll("[0-9]", "");
+        String numberPortion = digitsOf(visibilityValue);
+        String unitPortion = nonDigitsOf(visibilityValue);
 
         visibilityNode.put("visibility", numberPortion);
         visibilityNode.put("visibilityUom", unitPortion);
@@ -342,12 +535,12 @@ public class METReport_DataConverter {
 
     private static void extractCloudCoverAndTempData(String line, ObjectNode metReportJson) {
         //System.out.println("Processing CC and Temp: " + line); ERROR CHECK
-        String[] cloudParts = line.split("\\s+");
+        String[] cloudParts = splitOnWhitespace(line);
         StringBuilder cloudCoverBuilder = new StringBuilder();
 
         for (int i = 1; i < cloudParts.length; i++) {
             // Look for the temperature part (only starts with 'T' followed by a number)
-            if (cloudParts[i].matches("^T\\d+$")) {
+            if (isTemperature(cloudParts[i])) {
                 String temperature = cloudParts[i].replace("T", "") + "°C";
                 metReportJson.put("temperature", temperature);
             } else {
@@ -362,7 +555,7 @@ public class METReport_DataConverter {
 
     private static void extractDewPointData(String line, ObjectNode metReportJson) {
         //System.out.println("Processing DP: " + line); ERROR CHECK
-        String[] dewPointParts = line.split("\\s+");
+        String[] dewPointParts = splitOnWhitespace(line);
 
         String dewPoint = dewPointParts[0].replace("DP", "") + "°C";
         metReportJson.put("dewPoint", dewPoint);
@@ -371,7 +564,7 @@ public class METReport_DataConverter {
 
     private static void extractPressureData(String line, ObjectNode metReportJson) {
         //System.out.println("Processing Pressure: " + line); ERROR CHECK
-        String[] tempPressureParts = line.split("\\s+");
+        String[] tempPressureParts = splitOnWhitespace(line);
 
         if (tempPressureParts.length >= 2) {
             String pressure = tempPressureParts[1].replace("QNH", "").replace("HPA", " hPa");
@@ -383,7 +576,7 @@ public class METReport_DataConverter {
 
     private static void extractTrendData(String line, ObjectNode metReportJson) {
         //System.out.println("Processing TREND: " + line); ERROR CHECK
-        String[] trendParts = line.split("\\s+");
+        String[] trendParts = splitOnWhitespace(line);
         if (trendParts.length >= 2) {
             metReportJson.put("trend", trendParts[1]);
         }
@@ -0,0 +1,117 @@
+package DynamoDB_ETL.util;
+
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Preconfigured, XXE-hardened XML parsers shared by the converters, so no message pays for the factory
+// lookup and parser setup. DocumentBuilders are not thread-safe: each one is lent to a single thread for one
+// parse, reset and handed back. A pool rather than a ThreadLocal, since the consumers run every message on
+// a fresh virtual thread. The StAX factories are configured once and afterwards only create readers.
+public class XML_ParserProvider {
+
+    // JDK StAX only reports CDATA sections separately when asked to
+    private static final String REPORT_CDATA_EVENT = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+    private static final String IGNORE_EXTERNAL_DTD = "http://java.sun.com/xml/stream/properties/ignore-external-dtd";
+
+    // Builders idle in the pool beyond this are dropped rather than kept
+    private static final int MAX_POOLED_BUILDERS = 256;
+
+    private static final DocumentBuilderFactory NAMESPACE_AWARE_FACTORY = createDocumentBuilderFactory();
+    private static final Queue<DocumentBuilder> NAMESPACE_AWARE_BUILDERS = new ConcurrentLinkedQueue<>();
+    // Kept next to the queue, whose size() walks every node
+    private static final AtomicInteger POOLED_BUILDERS = new AtomicInteger();
+
+    private static final XMLInputFactory NAMESPACE_AWARE_INPUT_FACTORY = createInputFactory(true);
+    private static final XMLInputFactory NON_NAMESPACE_AWARE_INPUT_FACTORY = createInputFactory(false);
+
+    // Namespace-aware DOM parse, as the FIXM converters use it
+    public static Document parseDocument(String xml) throws ParserConfigurationException, SAXException, IOException {
+        return parseDocument(new InputSource(new StringReader(xml)));
+    }
+
+    // Same for a raw message body; the encoding comes from the XML declaration (UTF-8 by default)
+    public static Document parseDocument(InputStream xml) throws ParserConfigurationException, SAXException, IOException {
+        return parseDocument(new InputSource(xml));
+    }
+
+    private static Document parseDocument(InputSource xml) throws ParserConfigurationException, SAXException, IOException {
+        DocumentBuilder builder = NAMESPACE_AWARE_BUILDERS.poll();
+        if (builder != null) {
+            POOLED_BUILDERS.decrementAndGet();
+        } else {
+            builder = NAMESPACE_AWARE_FACTORY.newDocumentBuilder();
+        }
+
+        try {
+            return builder.parse(xml);
+        } finally {
+            builder.reset();
+            if (POOLED_BUILDERS.incrementAndGet() <= MAX_POOLED_BUILDERS) {
+                NAMESPACE_AWARE_BUILDERS.offer(builder);
+            } else {
+                POOLED_BUILDERS.decrementAndGet();
+            }
+        }
+    }
+
+    public static XMLStreamReader createStreamReader(Reader xml) throws XMLStreamException {
+        return NAMESPACE_AWARE_INPUT_FACTORY.createXMLStreamReader(xml);
+    }
+
+    public static XMLStreamReader createStreamReader(InputStream xml) throws XMLStreamException {
+        return NAMESPACE_AWARE_INPUT_FACTORY.createXMLStreamReader(xml);
+    }
+
+    // Element and attribute names stay qualified (e.g. "iwxxm:METAR"), xmlns declarations are reported as
+    // attributes and CDATA sections as their own events
+    public static XMLStreamReader createNonNamespaceAwareStreamReader(InputStream xml) throws XMLStreamException {
+        return NON_NAMESPACE_AWARE_INPUT_FACTORY.createXMLStreamReader(xml);
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(false);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException("XML parser does not support the required security features", e);
+        }
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+        factory.setAttribute(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        return factory;
+    }
+
+    private static XMLInputFactory createInputFactory(boolean namespaceAware) {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        if (factory.isPropertySupported(IGNORE_EXTERNAL_DTD)) {
+            factory.setProperty(IGNORE_EXTERNAL_DTD, Boolean.TRUE);
+        }
+        if (!namespaceAware && factory.isPropertySupported(REPORT_CDATA_EVENT)) {
+            factory.setProperty(REPORT_CDATA_EVENT, Boolean.TRUE);
+        }
+        return factory;
+    }
+}
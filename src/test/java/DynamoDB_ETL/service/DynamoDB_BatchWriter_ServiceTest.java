@@ -0,0 +1,129 @@
+package DynamoDB_ETL.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// Batching against an in-memory table that enforces the BatchWriteItem limits and hands back UnprocessedItems
+// on request. A rejected batch would be written item by item instead, so the batches are checked as DynamoDB
+// took them.
+class DynamoDB_BatchWriter_ServiceTest {
+
+    private static final String TABLE = "FIXM_FlightData";
+
+    private InMemoryDynamoDbClient dynamoDbClient;
+    private DynamoDB_BatchWriter_Service dynamoDBBatchWriterService;
+
+    @BeforeEach
+    void setUp() {
+        dynamoDbClient = new InMemoryDynamoDbClient();
+
+        ETL_Metrics_Service etlMetricsService = new ETL_Metrics_Service();
+        setField(etlMetricsService, "meterRegistry", new SimpleMeterRegistry());
+
+        DynamoDB_RateLimiter_Service dynamoDBRateLimiterService = new DynamoDB_RateLimiter_Service();
+        setField(dynamoDBRateLimiterService, "etlMetricsService", etlMetricsService);
+
+        dynamoDBBatchWriterService = new DynamoDB_BatchWriter_Service();
+        setField(dynamoDBBatchWriterService, "dynamoDbClient", dynamoDbClient);
+        setField(dynamoDBBatchWriterService, "etlMetricsService", etlMetricsService);
+        setField(dynamoDBBatchWriterService, "dynamoDBRateLimiterService", dynamoDBRateLimiterService);
+        setField(dynamoDBBatchWriterService, "batchMaxItems", 25);
+        setField(dynamoDBBatchWriterService, "maxRetries", 3);
+        setField(dynamoDBBatchWriterService, "retryBaseDelayMs", 1L);
+        setField(dynamoDBBatchWriterService, "retryMaxDelayMs", 5L);
+        setField(dynamoDBBatchWriterService, "maxPendingItems", 1000);
+        dynamoDBBatchWriterService.init();
+    }
+
+    @Test
+    void unprocessedItemsAreRetriedUntilWritten() throws Exception {
+        setField(dynamoDBBatchWriterService, "batchMaxItems", 5);
+        dynamoDbClient.handBackUnprocessed(3, 1);
+
+        List<CompletableFuture<Void>> futures = enqueue(5, 10);
+        awaitAll(futures);
+
+        assertEquals(List.of(5, 3, 1), dynamoDbClient.batchSizes());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(dynamoDbClient.item(TABLE, "gufi-" + i));
+        }
+    }
+
+    @Test
+    void itemsStillUnprocessedAfterTheLastRetryFail() {
+        setField(dynamoDBBatchWriterService, "batchMaxItems", 2);
+        dynamoDbClient.handBackUnprocessed(1, 1, 1, 1);
+
+        List<CompletableFuture<Void>> futures = enqueue(2, 10);
+
+        futures.get(0).join();
+        CompletionException failure = assertThrows(CompletionException.class, () -> futures.get(1).join());
+        assertInstanceOf(DynamoDB_BatchWriter_Service.UnprocessedItemsException.class, failure.getCause());
+        // The first call and maxRetries retries of the item handed back
+        assertEquals(List.of(2, 1, 1, 1), dynamoDbClient.batchSizes());
+        assertNull(dynamoDbClient.item(TABLE, "gufi-1"));
+    }
+
+    // dynamodb.batch.maxItems above the BatchWriteItem limit is capped at 25
+    @Test
+    void batchesHoldAtMost25Items() throws Exception {
+        setField(dynamoDBBatchWriterService, "batchMaxItems", 100);
+
+        List<CompletableFuture<Void>> futures = enqueue(60, 10);
+        dynamoDBBatchWriterService.flush();
+        awaitAll(futures);
+
+        List<Integer> batchSizes = new ArrayList<>(dynamoDbClient.batchSizes());
+        batchSizes.sort(null);
+        assertEquals(List.of(10, 25, 25), batchSizes);
+    }
+
+    // 1 MB items: the 16th would take the request over 16 MB, so the buffered 15 go first
+    @Test
+    void batchesStayWithin16MB() throws Exception {
+        List<CompletableFuture<Void>> futures = enqueue(20, 1024 * 1024);
+        dynamoDBBatchWriterService.flush();
+        awaitAll(futures);
+
+        List<Integer> batchSizes = new ArrayList<>(dynamoDbClient.batchSizes());
+        batchSizes.sort(null);
+        assertEquals(List.of(5, 15), batchSizes);
+        for (long bytes : dynamoDbClient.batchBytes()) {
+            assertTrue(bytes <= 16L * 1024 * 1024, bytes + " bytes in one batch");
+        }
+    }
+
+    private List<CompletableFuture<Void>> enqueue(int count, int payloadBytes) {
+        String payload = "x".repeat(payloadBytes);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("gufi", AttributeValue.fromS("gufi-" + i));
+            item.put("payload", AttributeValue.fromS(payload));
+            futures.add(dynamoDBBatchWriterService.enqueue(TABLE, item));
+        }
+        return futures;
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> futures) throws Exception {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,193 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.FIXM_Dep_DataConverter;
+import DynamoDB_ETL.util.FIXM_Fpl_DataConverter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// Latest-state merges of departures and coalesced flight plans for the same flight, on the corpus messages from src/test/resources/golden/fixm
+class DynamoDB_Coalescing_ServiceTest {
+
+    private static final String TABLE = "FIXM_LatestState";
+    private static final String GUFI = "a3f1c2de-5b6a-4c77-9e2f-1d3b2c4e5f60";
+
+    @TempDir
+    Path spoolDirectory;
+
+    private InMemoryDynamoDbClient dynamoDbClient;
+    private DynamoDB_Spool_Service dynamoDBSpoolService;
+    private DynamoDB_Writer_Service dynamoDBWriterService;
+    private DynamoDB_Coalescing_Service dynamoDBCoalescingService;
+    private FIXM_DataLoader_Service fixmDataLoaderService;
+    private String fplXml;
+    private String depXml;
+    private Map<String, AttributeValue> dep;
+    private Map<String, AttributeValue> fpl;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dynamoDbClient = new InMemoryDynamoDbClient();
+
+        ETL_Metrics_Service etlMetricsService = new ETL_Metrics_Service();
+        setField(etlMetricsService, "meterRegistry", new SimpleMeterRegistry());
+
+        DynamoDB_RateLimiter_Service dynamoDBRateLimiterService = new DynamoDB_RateLimiter_Service();
+        setField(dynamoDBRateLimiterService, "etlMetricsService", etlMetricsService);
+
+        dynamoDBSpoolService = new DynamoDB_Spool_Service();
+        setField(dynamoDBSpoolService, "dynamoDbClient", dynamoDbClient);
+        setField(dynamoDBSpoolService, "etlMetricsService", etlMetricsService);
+        setField(dynamoDBSpoolService, "dynamoDBRateLimiterService", dynamoDBRateLimiterService);
+        setField(dynamoDBSpoolService, "enabled", true);
+        setField(dynamoDBSpoolService, "directory", spoolDirectory.toString());
+        setField(dynamoDBSpoolService, "segmentBytes", 1 << 20);
+        setField(dynamoDBSpoolService, "drainRatePerSecond", 50);
+        setField(dynamoDBSpoolService, "drainIntervalMs", 1000L);
+        dynamoDBSpoolService.init();
+
+        dynamoDBWriterService = new DynamoDB_Writer_Service();
+        setField(dynamoDBWriterService, "dynamoDbClient", dynamoDbClient);
+        setField(dynamoDBWriterService, "etlMetricsService", etlMetricsService);
+        setField(dynamoDBWriterService, "dynamoDBRateLimiterService", dynamoDBRateLimiterService);
+        setField(dynamoDBWriterService, "dynamoDBSpoolService", dynamoDBSpoolService);
+        setField(dynamoDBWriterService, "writeMode", "sync");
+
+        ETL_PartitionedExecutor_Service etlPartitionedExecutorService = new ETL_PartitionedExecutor_Service();
+        setField(etlPartitionedExecutorService, "laneCount", 4);
+        etlPartitionedExecutorService.init();
+
+        dynamoDBCoalescingService = new DynamoDB_Coalescing_Service();
+        setField(dynamoDBCoalescingService, "dynamoDBWriterService", dynamoDBWriterService);
+        setField(dynamoDBCoalescingService, "etlPartitionedExecutorService", etlPartitionedExecutorService);
+        setField(dynamoDBCoalescingService, "etlLoggingService", new ETL_Logging_Service());
+        setField(dynamoDBCoalescingService, "etlMetricsService", etlMetricsService);
+        setField(dynamoDBCoalescingService, "windowMs", 60000L);
+
+        ETL_Dedup_Service etlDedupService = new ETL_Dedup_Service();
+        setField(etlDedupService, "etlMetricsService", etlMetricsService);
+
+        fixmDataLoaderService = new FIXM_DataLoader_Service();
+        setField(fixmDataLoaderService, "dynamoDBWriterService", dynamoDBWriterService);
+        setField(fixmDataLoaderService, "etlMetricsService", etlMetricsService);
+        setField(fixmDataLoaderService, "etlLoggingService", new ETL_Logging_Service());
+        setField(fixmDataLoaderService, "etlDedupService", etlDedupService);
+        setField(fixmDataLoaderService, "etlPartitionedExecutorService", etlPartitionedExecutorService);
+        setField(fixmDataLoaderService, "dynamoDBCoalescingService", dynamoDBCoalescingService);
+        setField(fixmDataLoaderService, "parser", "stax");
+        setField(fixmDataLoaderService, "latestStateTable", TABLE);
+        setField(fixmDataLoaderService, "depWriteMode", "merge");
+
+        fplXml = resource("/golden/fixm/fixm-fpl.xml");
+        depXml = resource("/golden/fixm/fixm-dep.xml");
+        dep = FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(depXml);
+        fpl = FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(fplXml);
+    }
+
+    @Test
+    void coalescedFlightPlanAfterDepartureMergeKeepsDepartureFields() {
+        dynamoDBWriterService.updateItem(TABLE, "gufi", dep).join();
+        dynamoDBCoalescingService.offer(TABLE, "gufi", "20241018153500", fpl);
+        dynamoDBCoalescingService.flush().join();
+
+        assertMerged(dynamoDbClient.item(TABLE, GUFI));
+    }
+
+    @Test
+    void departureMergeAfterCoalescedFlightPlanKeepsFlightPlanFields() {
+        dynamoDBCoalescingService.offer(TABLE, "gufi", "20241018153500", fpl);
+        dynamoDBCoalescingService.flush().join();
+        dynamoDBWriterService.updateItem(TABLE, "gufi", dep).join();
+
+        assertMerged(dynamoDbClient.item(TABLE, GUFI));
+    }
+
+    // The flight plan is still held when the newer departure is merged; it is written first, so its older
+    // actualTimeOfDeparture does not overwrite the departure's
+    @Test
+    void heldFlightPlanIsWrittenBeforeDepartureMerge() {
+        Map<String, AttributeValue> departure = new HashMap<>(fpl.get("departure").m());
+        departure.put("actualTimeOfDeparture", AttributeValue.fromS("2024-10-18T15:20:00.000Z"));
+        Map<String, AttributeValue> olderFpl = new HashMap<>(fpl);
+        olderFpl.put("departure", AttributeValue.fromM(departure));
+        dynamoDBCoalescingService.offer(TABLE, "gufi", "2024-10-18T15:35:00.000Z", olderFpl);
+
+        fixmDataLoaderService.processMessageContent(depXml, "2024-10-18T15:41:30.000Z", "ID:2", "topic/fixm/dep").join();
+        dynamoDBCoalescingService.flush().join();
+
+        assertMerged(dynamoDbClient.item(TABLE, GUFI));
+    }
+
+    // The latest state is best-effort: the message future does not wait for the held-back write, and a
+    // write DynamoDB rejects only fails that write
+    @Test
+    void flightPlanCompletesBeforeItsLatestStateWrite() {
+        fixmDataLoaderService.processMessageContent(fplXml, "20241018153500", "ID:1", "topic/fixm/fpl").join();
+
+        assertNotNull(dynamoDbClient.item("FIXM_FlightData", GUFI));
+        assertNull(dynamoDbClient.item(TABLE, GUFI));
+
+        dynamoDbClient.failNextWrite(DynamoDbException.builder().message("Item size has exceeded the maximum allowed size").statusCode(400).build());
+        assertThrows(CompletionException.class, () -> dynamoDBCoalescingService.flush().join());
+        assertNull(dynamoDbClient.item(TABLE, GUFI));
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+    }
+
+    @Test
+    void throttledLatestStateWriteIsSpooledAndDrainedAsMerge() {
+        dynamoDBWriterService.updateItem(TABLE, "gufi", dep).join();
+        dynamoDbClient.failNextWrite(ProvisionedThroughputExceededException.builder().message("Throughput exceeded").statusCode(400).build());
+        dynamoDBCoalescingService.offer(TABLE, "gufi", "20241018153500", fpl);
+        dynamoDBCoalescingService.flush().join();
+
+        assertEquals(1L, dynamoDBSpoolService.pendingItems());
+        assertNull(dynamoDbClient.item(TABLE, GUFI).get("operator"));
+
+        dynamoDBSpoolService.drain();
+
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+        assertMerged(dynamoDbClient.item(TABLE, GUFI));
+    }
+
+    private static void assertMerged(Map<String, AttributeValue> item) {
+        Map<String, AttributeValue> departure = item.get("departure").m();
+        Map<String, AttributeValue> arrival = item.get("arrival").m();
+
+        // From the departure message; the flight plan has actualTimeOfDeparture null
+        assertEquals("2024-10-18T15:41:00.000Z", departure.get("actualTimeOfDeparture").s());
+        // From the flight plan only
+        assertEquals("2024-10-18T15:30:00.000Z", departure.get("estimatedOffBlockTime").s());
+        assertEquals("RJAA", arrival.get("destinationAerodromeAlternate").s());
+        assertEquals("SINGAPORE AIRLINES", item.get("operator").s());
+        assertFalse(item.get("filed").m().isEmpty());
+        // In both
+        assertEquals("WSSS", departure.get("departureAerodrome").s());
+        assertEquals("RJTT", arrival.get("destinationAerodrome").s());
+    }
+
+    // The corpus messages, as recorded with the golden converter outputs
+    private static String resource(String name) throws IOException {
+        try (InputStream in = DynamoDB_Coalescing_ServiceTest.class.getResourceAsStream(name)) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
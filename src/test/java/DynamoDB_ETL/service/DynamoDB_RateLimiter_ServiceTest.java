@@ -0,0 +1,108 @@
+package DynamoDB_ETL.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// The AIMD rate of the token buckets, read the way it is exported: from the rate limit gauge of the table
+class DynamoDB_RateLimiter_ServiceTest {
+
+    private static final String TABLE = "FIXM_FlightData";
+    private static final String OTHER_TABLE = "IWXXM_Data";
+
+    private SimpleMeterRegistry meterRegistry;
+    private DynamoDB_RateLimiter_Service dynamoDBRateLimiterService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        ETL_Metrics_Service etlMetricsService = new ETL_Metrics_Service();
+        setField(etlMetricsService, "meterRegistry", meterRegistry);
+
+        dynamoDBRateLimiterService = new DynamoDB_RateLimiter_Service();
+        setField(dynamoDBRateLimiterService, "etlMetricsService", etlMetricsService);
+        setField(dynamoDBRateLimiterService, "enabled", true);
+        setField(dynamoDBRateLimiterService, "initialRate", 100.0);
+        setField(dynamoDBRateLimiterService, "minRate", 30.0);
+        setField(dynamoDBRateLimiterService, "maxRate", 1000.0);
+        setField(dynamoDBRateLimiterService, "increasePerSecond", 50.0);
+        setField(dynamoDBRateLimiterService, "decreaseFactor", 0.5);
+        setField(dynamoDBRateLimiterService, "decreaseCooldownMs", 1000L);
+    }
+
+    // Throttles of one burst cut the rate once
+    @Test
+    void throttleCutsTheRateOncePerCooldown() {
+        dynamoDBRateLimiterService.recordResult(TABLE, throttled());
+        assertEquals(50.0, rate(TABLE));
+
+        dynamoDBRateLimiterService.recordResult(TABLE, throttled());
+        assertEquals(50.0, rate(TABLE));
+    }
+
+    @Test
+    void rateDoesNotDropBelowMinRate() {
+        setField(dynamoDBRateLimiterService, "decreaseCooldownMs", 0L);
+
+        dynamoDBRateLimiterService.recordThrottle(TABLE);
+        assertEquals(50.0, rate(TABLE));
+        dynamoDBRateLimiterService.recordThrottle(TABLE);
+        assertEquals(30.0, rate(TABLE));
+        dynamoDBRateLimiterService.recordThrottle(TABLE);
+        assertEquals(30.0, rate(TABLE));
+    }
+
+    // Both tables write successfully for a second, but only the one that used its limit gets a higher one
+    @Test
+    void unthrottledWritingGrowsTheRateWhileTheLimitIsInUse() throws Exception {
+        assertTrue(dynamoDBRateLimiterService.acquire(TABLE, 100));
+        assertTrue(dynamoDBRateLimiterService.acquire(OTHER_TABLE, 1));
+        // Not before a second has passed
+        dynamoDBRateLimiterService.recordResult(TABLE, null);
+        assertEquals(100.0, rate(TABLE));
+
+        Thread.sleep(1100);
+        dynamoDBRateLimiterService.recordResult(TABLE, null);
+        dynamoDBRateLimiterService.recordResult(OTHER_TABLE, null);
+
+        assertTrue(rate(TABLE) >= 155.0, "rate " + rate(TABLE));
+        assertEquals(100.0, rate(OTHER_TABLE));
+    }
+
+    // A second of capacity is saved up; what goes beyond it waits for the bucket to refill at the rate
+    @Test
+    void acquireWaitsOnceTheSavedUpCapacityIsUsed() {
+        long start = System.nanoTime();
+        assertTrue(dynamoDBRateLimiterService.acquire(TABLE, 100));
+        assertTrue(dynamoDBRateLimiterService.acquire(TABLE, 50));
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMs >= 400, waitedMs + " ms");
+    }
+
+    // The cut also drops what was saved up, so the next write waits at the new rate
+    @Test
+    void throttleDropsTheSavedUpCapacity() {
+        assertTrue(dynamoDBRateLimiterService.acquire(TABLE, 1));
+        dynamoDBRateLimiterService.recordThrottle(TABLE);
+
+        long start = System.nanoTime();
+        assertTrue(dynamoDBRateLimiterService.acquire(TABLE, 25));
+        long waitedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        assertTrue(waitedMs >= 400, waitedMs + " ms");
+    }
+
+    private double rate(String tableName) {
+        return meterRegistry.get("etl.dynamodb.write.rate.limit").tag("table", tableName).gauge().value();
+    }
+
+    private static Throwable throttled() {
+        return ProvisionedThroughputExceededException.builder().message("Throughput exceeded").statusCode(400).build();
+    }
+}
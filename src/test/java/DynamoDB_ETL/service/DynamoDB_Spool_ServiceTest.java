@@ -0,0 +1,246 @@
+package DynamoDB_ETL.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// Spool replay against an in-memory table, drained by hand instead of on the schedule. A restart is a second
+// spool on the same directory while the first one is simply abandoned, as after a crash.
+class DynamoDB_Spool_ServiceTest {
+
+    private static final String TABLE = "FIXM_LatestState";
+    private static final String GUFI = "a3f1c2de-5b6a-4c77-9e2f-1d3b2c4e5f60";
+
+    @TempDir
+    Path spoolDirectory;
+
+    private SimpleMeterRegistry meterRegistry;
+    private InMemoryDynamoDbClient dynamoDbClient;
+    private DynamoDB_Spool_Service dynamoDBSpoolService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        meterRegistry = new SimpleMeterRegistry();
+        dynamoDbClient = new InMemoryDynamoDbClient();
+        dynamoDBSpoolService = spool(1 << 16, 50);
+    }
+
+    // 256 byte segments hold two items each; the drained ones are deleted, the one appended to is kept
+    @Test
+    void appendedItemsAreDrainedAcrossSegments() throws Exception {
+        dynamoDBSpoolService = spool(256, 50);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(dynamoDBSpoolService.append(TABLE, flight(i)));
+        }
+        assertEquals(5L, dynamoDBSpoolService.pendingItems());
+        assertEquals(3, segments().size());
+
+        dynamoDBSpoolService.drain();
+
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(dynamoDbClient.item(TABLE, "gufi-" + i));
+        }
+        assertEquals(1, segments().size());
+    }
+
+    @Test
+    void itemTooLargeForASegmentIsNotSpooled() throws Exception {
+        dynamoDBSpoolService = spool(256, 50);
+        Map<String, AttributeValue> item = flight(0);
+        item.put("payload", AttributeValue.fromS("x".repeat(256)));
+
+        assertFalse(dynamoDBSpoolService.append(TABLE, item));
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+    }
+
+    // What was drained before the crash is not replayed again, what was not is
+    @Test
+    void pendingItemsAreDrainedAfterARestart() throws Exception {
+        dynamoDBSpoolService = spool(1 << 16, 1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(dynamoDBSpoolService.append(TABLE, flight(i)));
+        }
+        dynamoDBSpoolService.drain();
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-0"));
+
+        DynamoDB_Spool_Service restarted = spool(1 << 16, 1);
+        assertEquals(2L, restarted.pendingItems());
+        // One item per drain: the first one after the restart is gufi-1
+        restarted.drain();
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-1"));
+        assertNull(dynamoDbClient.item(TABLE, "gufi-2"));
+        restarted.drain();
+
+        assertEquals(0L, restarted.pendingItems());
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-2"));
+    }
+
+    // A record whose body does not match its CRC was torn by the crash and ends the segment
+    @Test
+    void tornRecordIsNotReplayedAfterARestart() throws Exception {
+        assertTrue(dynamoDBSpoolService.append(TABLE, flight(0)));
+        assertTrue(dynamoDBSpoolService.append(TABLE, flight(1)));
+        Path segment = segments().get(0);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            channel.read(length, Long.BYTES);
+            int secondRecord = Long.BYTES + 2 * Integer.BYTES + length.flip().getInt();
+            channel.write(ByteBuffer.wrap(new byte[]{0x7f}), secondRecord + 2 * Integer.BYTES + 1);
+        }
+
+        DynamoDB_Spool_Service restarted = spool(1 << 16, 50);
+        assertEquals(1L, restarted.pendingItems());
+        restarted.drain();
+
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-0"));
+        assertNull(dynamoDbClient.item(TABLE, "gufi-1"));
+        // Appended after the valid records, over the torn one
+        assertTrue(restarted.append(TABLE, flight(2)));
+        restarted.drain();
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-2"));
+    }
+
+    @Test
+    void rejectedItemIsDeadLettered() throws Exception {
+        assertTrue(dynamoDBSpoolService.append(TABLE, flight(0)));
+        assertTrue(dynamoDBSpoolService.append(TABLE, flight(1)));
+        dynamoDbClient.failNextWrite(DynamoDbException.builder().message("One or more parameter values were invalid").statusCode(400).build());
+
+        dynamoDBSpoolService.drain();
+
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+        assertNull(dynamoDbClient.item(TABLE, "gufi-0"));
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-1"));
+        assertTrue(Files.size(spoolDirectory.resolve("dead-letter.rec")) > 0);
+        assertEquals(1.0, deadLettered("rejected"));
+    }
+
+    // The drain pauses on each failure and gives the oldest item up on its maxReplays-th
+    @Test
+    void itemIsDeadLetteredAfterMaxReplays() {
+        assertTrue(dynamoDBSpoolService.append(TABLE, flight(0)));
+        assertTrue(dynamoDBSpoolService.append(TABLE, flight(1)));
+
+        for (int replay = 1; replay <= 3; replay++) {
+            dynamoDbClient.failNextWrite(DynamoDbException.builder().message("Internal server error").statusCode(500).build());
+            dynamoDBSpoolService.drain();
+            assertEquals(replay < 3 ? 2L : 0L, dynamoDBSpoolService.pendingItems());
+        }
+
+        assertNull(dynamoDbClient.item(TABLE, "gufi-0"));
+        assertNotNull(dynamoDbClient.item(TABLE, "gufi-1"));
+        assertEquals(1.0, deadLettered("maxReplays"));
+    }
+
+    @Test
+    void stalePutIsSkippedOnReplay() {
+        assertTrue(dynamoDBSpoolService.append(TABLE, item("2024-10-18T15:35:00.000Z", "callsign", "SIA1")));
+        dynamoDbClient.putItem(PutItemRequest.builder().tableName(TABLE).item(item("2024-10-18T15:40:00.000Z", "callsign", "SIA2")).build());
+
+        dynamoDBSpoolService.drain();
+
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+        assertEquals("SIA2", dynamoDbClient.item(TABLE, GUFI).get("callsign").s());
+    }
+
+    @Test
+    void newerPutIsWrittenOnReplay() {
+        dynamoDbClient.putItem(PutItemRequest.builder().tableName(TABLE).item(item("2024-10-18T15:35:00.000Z", "callsign", "SIA1")).build());
+        assertTrue(dynamoDBSpoolService.append(TABLE, item("2024-10-18T15:40:00.000Z", "callsign", "SIA2")));
+
+        dynamoDBSpoolService.drain();
+
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+        assertEquals("SIA2", dynamoDbClient.item(TABLE, GUFI).get("callsign").s());
+    }
+
+    @Test
+    void staleMergeIsSkippedOnReplay() {
+        assertTrue(dynamoDBSpoolService.append(TABLE, "gufi", item("2024-10-18T15:35:00.000Z", "departure",
+                AttributeValue.fromM(Map.of("actualTimeOfDeparture", AttributeValue.fromS("2024-10-18T15:33:00.000Z"))))));
+        dynamoDbClient.putItem(PutItemRequest.builder().tableName(TABLE).item(item("2024-10-18T15:40:00.000Z", "departure",
+                AttributeValue.fromM(Map.of("actualTimeOfDeparture", AttributeValue.fromS("2024-10-18T15:41:00.000Z"))))).build());
+
+        dynamoDBSpoolService.drain();
+
+        assertEquals(0L, dynamoDBSpoolService.pendingItems());
+        assertEquals("2024-10-18T15:41:00.000Z",
+                dynamoDbClient.item(TABLE, GUFI).get("departure").m().get("actualTimeOfDeparture").s());
+    }
+
+    private DynamoDB_Spool_Service spool(int segmentBytes, int drainRatePerSecond) throws Exception {
+        ETL_Metrics_Service etlMetricsService = new ETL_Metrics_Service();
+        setField(etlMetricsService, "meterRegistry", meterRegistry);
+
+        DynamoDB_RateLimiter_Service dynamoDBRateLimiterService = new DynamoDB_RateLimiter_Service();
+        setField(dynamoDBRateLimiterService, "etlMetricsService", etlMetricsService);
+
+        DynamoDB_Spool_Service spool = new DynamoDB_Spool_Service();
+        setField(spool, "dynamoDbClient", dynamoDbClient);
+        setField(spool, "etlMetricsService", etlMetricsService);
+        setField(spool, "dynamoDBRateLimiterService", dynamoDBRateLimiterService);
+        setField(spool, "enabled", true);
+        setField(spool, "directory", spoolDirectory.toString());
+        setField(spool, "segmentBytes", segmentBytes);
+        setField(spool, "drainRatePerSecond", drainRatePerSecond);
+        setField(spool, "drainIntervalMs", 1000L);
+        setField(spool, "maxReplays", 3);
+        spool.init();
+        return spool;
+    }
+
+    private List<Path> segments() throws Exception {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(spoolDirectory, "spool-*.seg")) {
+            files.forEach(segments::add);
+        }
+        return segments;
+    }
+
+    private double deadLettered(String reason) {
+        return meterRegistry.get("etl.spool.deadlettered").tag("table", TABLE).tag("reason", reason).counter().count();
+    }
+
+    private static Map<String, AttributeValue> flight(int i) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("gufi", AttributeValue.fromS("gufi-" + i));
+        item.put("logTimestamp", AttributeValue.fromS("2024-10-18T15:35:00.000Z"));
+        item.put("callsign", AttributeValue.fromS("SIA" + i));
+        return item;
+    }
+
+    private static Map<String, AttributeValue> item(String logTimestamp, String attribute, String value) {
+        return item(logTimestamp, attribute, AttributeValue.fromS(value));
+    }
+
+    private static Map<String, AttributeValue> item(String logTimestamp, String attribute, AttributeValue value) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        item.put("gufi", AttributeValue.fromS(GUFI));
+        item.put("logTimestamp", AttributeValue.fromS(logTimestamp));
+        item.put(attribute, value);
+        return item;
+    }
+}
@@ -0,0 +1,151 @@
+package DynamoDB_ETL.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// Start order of writes per partition key. The writes are futures the test completes by hand, so a write is in
+// flight until the test says otherwise.
+class ETL_PartitionedExecutor_ServiceTest {
+
+    private static final String GUFI = "a3f1c2de-5b6a-4c77-9e2f-1d3b2c4e5f60";
+    private static final String OTHER_GUFI = "0b7d4e2a-1c3f-4a5b-8d6e-7f8091a2b3c4";
+
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<Void>> writes = new ConcurrentHashMap<>();
+
+    private ETL_PartitionedExecutor_Service etlPartitionedExecutorService;
+
+    @BeforeEach
+    void setUp() {
+        etlPartitionedExecutorService = new ETL_PartitionedExecutor_Service();
+        // One lane: every key shares it, so keys are only kept apart by the lane's map
+        setField(etlPartitionedExecutorService, "laneCount", 1);
+        etlPartitionedExecutorService.init();
+    }
+
+    // Each write of a key starts once the previous one completed, also when that one failed
+    @Test
+    void writesForOneKeyStartInOrderOneAfterTheOther() throws Exception {
+        CompletableFuture<Void> fpl = submit(GUFI, "fpl");
+        CompletableFuture<Void> dep = submit(GUFI, "dep");
+        CompletableFuture<Void> arr = submit(GUFI, "arr");
+        assertEquals(List.of("fpl"), started);
+
+        writes.get("fpl").complete(null);
+        assertTrue(waitFor(() -> started.size() == 2));
+        assertEquals(List.of("fpl", "dep"), started);
+
+        writes.get("dep").completeExceptionally(new IllegalStateException("write failed"));
+        assertTrue(waitFor(() -> started.size() == 3));
+        assertEquals(List.of("fpl", "dep", "arr"), started);
+
+        writes.get("arr").complete(null);
+        fpl.get(5, TimeUnit.SECONDS);
+        assertThrows(Exception.class, () -> dep.get(5, TimeUnit.SECONDS));
+        arr.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void writesForOtherKeysDoNotWait() {
+        submit(GUFI, "fpl");
+        submit(GUFI, "dep");
+        submit(OTHER_GUFI, "other fpl");
+        submit(null, "iwxxm");
+
+        assertEquals(List.of("fpl", "other fpl", "iwxxm"), started);
+    }
+
+    // A write that throws instead of returning a future fails its own result and does not hold up the key
+    @Test
+    void writeThatThrowsDoesNotBlockTheKey() throws Exception {
+        CompletableFuture<Void> failed = etlPartitionedExecutorService.submit(GUFI, () -> {
+            throw new IllegalArgumentException("no item");
+        });
+        CompletionException failure = assertThrows(CompletionException.class, failed::join);
+        assertInstanceOf(IllegalArgumentException.class, failure.getCause());
+
+        submit(GUFI, "fpl");
+        assertEquals(List.of("fpl"), started);
+    }
+
+    // Writes completing on other threads after a random delay: per key they still run in submission order
+    // and never two at a time
+    @Test
+    void writesOfManyKeysKeepTheirOrderPerKey() throws Exception {
+        setField(etlPartitionedExecutorService, "laneCount", 4);
+        etlPartitionedExecutorService.init();
+
+        Map<String, List<Integer>> startedPerKey = new ConcurrentHashMap<>();
+        Map<String, AtomicInteger> inFlightPerKey = new ConcurrentHashMap<>();
+        AtomicInteger overlaps = new AtomicInteger();
+        List<CompletableFuture<Void>> results = new ArrayList<>();
+
+        for (int i = 0; i < 400; i++) {
+            String key = "gufi-" + (i % 10);
+            int sequence = i;
+            results.add(etlPartitionedExecutorService.submit(key, () -> {
+                if (inFlightPerKey.computeIfAbsent(key, k -> new AtomicInteger()).incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                startedPerKey.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(sequence);
+                return CompletableFuture.runAsync(() -> {
+                    try {
+                        Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlightPerKey.get(key).decrementAndGet();
+                });
+            }));
+        }
+        CompletableFuture.allOf(results.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+
+        assertEquals(0, overlaps.get());
+        for (int k = 0; k < 10; k++) {
+            List<Integer> expected = new ArrayList<>();
+            for (int sequence = k; sequence < 400; sequence += 10) {
+                expected.add(sequence);
+            }
+            assertEquals(expected, startedPerKey.get("gufi-" + k));
+        }
+    }
+
+    // The write records its start and stays in flight until the test completes writes.get(name)
+    private CompletableFuture<Void> submit(String partitionKey, String name) {
+        CompletableFuture<Void> write = new CompletableFuture<>();
+        writes.put(name, write);
+        return etlPartitionedExecutorService.submit(partitionKey, () -> {
+            started.add(name);
+            return write;
+        });
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,130 @@
+package DynamoDB_ETL.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// Start order of messages for the same flight and for other flights across the lanes. One worker, held on a first message while the
+// others are queued, so the order they are taken in is the order they run in.
+class ETL_PriorityScheduler_ServiceTest {
+
+    private static final String GUFI = "a3f1c2de-5b6a-4c77-9e2f-1d3b2c4e5f60";
+    private static final String OTHER_GUFI = "0b7d4e2a-1c3f-4a5b-8d6e-7f8091a2b3c4";
+
+    private final List<String> started = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void departureDoesNotStartBeforeEarlierFlightPlanForTheSameFlight() throws Exception {
+        ETL_PriorityScheduler_Service scheduler = scheduler(4);
+        hold(scheduler);
+        scheduler.execute("topic/fixm/fpl", GUFI, () -> started.add("fpl"));
+        scheduler.execute("topic/fixm/dep", GUFI, () -> started.add("dep"));
+
+        assertEquals(List.of("fpl", "dep"), runAll(scheduler));
+    }
+
+    @Test
+    void flightPlanDoesNotStartBeforeEarlierDepartureForTheSameFlight() throws Exception {
+        // Weight 0: the shared worker prefers the normal lane
+        ETL_PriorityScheduler_Service scheduler = scheduler(0);
+        hold(scheduler);
+        scheduler.execute("topic/fixm/dep", GUFI, () -> started.add("dep"));
+        scheduler.execute("topic/fixm/fpl", GUFI, () -> started.add("fpl"));
+
+        assertEquals(List.of("dep", "fpl"), runAll(scheduler));
+    }
+
+    // Only the flight plan of the departure's own flight is taken along into the high lane
+    @Test
+    void departureStillStartsBeforeEarlierMessagesOfOtherFlights() throws Exception {
+        ETL_PriorityScheduler_Service scheduler = scheduler(4);
+        hold(scheduler);
+        scheduler.execute("topic/iwxxm/metar", null, () -> started.add("iwxxm"));
+        scheduler.execute("topic/fixm/fpl", OTHER_GUFI, () -> started.add("other fpl"));
+        scheduler.execute("topic/fixm/fpl", GUFI, () -> started.add("fpl"));
+        scheduler.execute("topic/fixm/dep", GUFI, () -> started.add("dep"));
+
+        assertEquals(List.of("fpl", "dep", "iwxxm", "other fpl"), runAll(scheduler));
+    }
+
+    // With several workers a message waits until the earlier one with its key has returned
+    @Test
+    void messagesOfOneFlightDoNotOverlap() throws Exception {
+        ETL_PriorityScheduler_Service scheduler = scheduler(4, 4);
+        CountDownLatch fplRunning = new CountDownLatch(1);
+        scheduler.execute("topic/fixm/fpl", GUFI, () -> {
+            fplRunning.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            started.add("fpl");
+        });
+        assertTrue(fplRunning.await(5, TimeUnit.SECONDS));
+        scheduler.execute("topic/fixm/dep", GUFI, () -> started.add("dep"));
+        scheduler.execute("topic/fixm/dep", OTHER_GUFI, () -> started.add("other dep"));
+        assertTrue(waitFor(() -> started.contains("other dep")));
+
+        assertEquals(List.of("other dep", "fpl", "dep"), runAll(scheduler));
+    }
+
+    private static ETL_PriorityScheduler_Service scheduler(int highWeight) {
+        return scheduler(highWeight, 1);
+    }
+
+    private static ETL_PriorityScheduler_Service scheduler(int highWeight, int workerCount) {
+        ETL_Metrics_Service etlMetricsService = new ETL_Metrics_Service();
+        setField(etlMetricsService, "meterRegistry", new SimpleMeterRegistry());
+
+        ETL_PriorityScheduler_Service scheduler = new ETL_PriorityScheduler_Service();
+        setField(scheduler, "etlMetricsService", etlMetricsService);
+        setField(scheduler, "highDestinations", new String[]{"dep", "met-report"});
+        setField(scheduler, "workerCount", workerCount);
+        setField(scheduler, "reservedWorkers", 0);
+        setField(scheduler, "highWeight", highWeight);
+        scheduler.init();
+        return scheduler;
+    }
+
+    // Occupies the only worker until runAll()
+    private void hold(ETL_PriorityScheduler_Service scheduler) throws InterruptedException {
+        CountDownLatch holding = new CountDownLatch(1);
+        scheduler.execute("topic/other", null, () -> {
+            holding.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private List<String> runAll(ETL_PriorityScheduler_Service scheduler) throws InterruptedException {
+        release.countDown();
+        assertTrue(scheduler.awaitIdle(5, TimeUnit.SECONDS));
+        return started;
+    }
+}
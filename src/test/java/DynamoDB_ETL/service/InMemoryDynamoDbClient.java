@@ -0,0 +1,221 @@
+package DynamoDB_ETL.service;
+
+import DynamoDB_ETL.util.DynamoDB_ItemSizeCalculator;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ConditionalCheckFailedException;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.PutItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.PutItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.UpdateItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tables in memory, keyed on gufi. PutItem and UpdateItem understand what DynamoDB_MergeRequest sends (SET of
+// top-level and one-level nested paths, if_not_exists, attribute_exists and logTimestamp conditions) and reject
+// what DynamoDB rejects: paths that overlap, and a nested path whose parent map does not exist. BatchWriteItem
+// takes puts within the 25 item / 16 MB request limits and can hand some of them back as UnprocessedItems.
+class InMemoryDynamoDbClient implements DynamoDbClient {
+
+    private static final int MAX_BATCH_ITEMS = 25;
+    private static final long MAX_BATCH_BYTES = 16L * 1024 * 1024;
+
+    private final Map<String, Map<String, AttributeValue>> items = new HashMap<>();
+
+    // Per BatchWriteItem call: how many of its last requests are handed back unprocessed, and what it held
+    private final Deque<Integer> unprocessedCounts = new ArrayDeque<>();
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private final List<Long> batchBytes = new ArrayList<>();
+
+    // Thrown by the next write instead of applying it
+    private RuntimeException nextFailure;
+
+    synchronized void failNextWrite(RuntimeException failure) {
+        nextFailure = failure;
+    }
+
+    synchronized Map<String, AttributeValue> item(String tableName, String key) {
+        return items.get(tableName + "|" + key);
+    }
+
+    // The next BatchWriteItem calls, one count each, hand back that many of their last requests
+    synchronized void handBackUnprocessed(int... counts) {
+        for (int count : counts) {
+            unprocessedCounts.add(count);
+        }
+    }
+
+    synchronized List<Integer> batchSizes() {
+        return new ArrayList<>(batchSizes);
+    }
+
+    synchronized List<Long> batchBytes() {
+        return new ArrayList<>(batchBytes);
+    }
+
+    @Override
+    public synchronized BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        failIfRequested();
+        Map.Entry<String, List<WriteRequest>> table = request.requestItems().entrySet().iterator().next();
+        List<WriteRequest> writes = table.getValue();
+        long bytes = 0;
+        for (WriteRequest write : writes) {
+            bytes += DynamoDB_ItemSizeCalculator.calculateItemSize(write.putRequest().item());
+        }
+        if (writes.size() > MAX_BATCH_ITEMS || bytes > MAX_BATCH_BYTES) {
+            throw validation("Too many items or bytes in the batch: " + writes.size() + ", " + bytes);
+        }
+        batchSizes.add(writes.size());
+        batchBytes.add(bytes);
+
+        Integer unprocessedCount = unprocessedCounts.poll();
+        int processed = writes.size() - (unprocessedCount != null ? Math.min(unprocessedCount, writes.size()) : 0);
+        for (WriteRequest write : writes.subList(0, processed)) {
+            Map<String, AttributeValue> item = write.putRequest().item();
+            items.put(table.getKey() + "|" + item.get("gufi").s(), new HashMap<>(item));
+        }
+        List<WriteRequest> unprocessed = writes.subList(processed, writes.size());
+        return BatchWriteItemResponse.builder()
+                .unprocessedItems(unprocessed.isEmpty() ? Map.of() : Map.of(table.getKey(), new ArrayList<>(unprocessed)))
+                .build();
+    }
+
+    @Override
+    public synchronized PutItemResponse putItem(PutItemRequest request) {
+        failIfRequested();
+        String id = request.tableName() + "|" + request.item().get("gufi").s();
+        checkCondition(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                items.get(id));
+        items.put(id, new HashMap<>(request.item()));
+        return PutItemResponse.builder().build();
+    }
+
+    @Override
+    public synchronized UpdateItemResponse updateItem(UpdateItemRequest request) {
+        failIfRequested();
+        Map.Entry<String, AttributeValue> key = request.key().entrySet().iterator().next();
+        String id = request.tableName() + "|" + key.getValue().s();
+        Map<String, AttributeValue> stored = items.get(id);
+
+        checkCondition(request.conditionExpression(), request.expressionAttributeNames(), request.expressionAttributeValues(),
+                stored);
+
+        Map<String, AttributeValue> item = stored != null ? new HashMap<>(stored) : new HashMap<>();
+        item.put(key.getKey(), key.getValue());
+        if (request.updateExpression() != null) {
+            List<List<String>> paths = new ArrayList<>();
+            for (String action : splitActions(request.updateExpression().substring("SET ".length()))) {
+                String[] assignment = action.split(" = ", 2);
+                List<String> path = new ArrayList<>();
+                for (String placeholder : assignment[0].split("\\.")) {
+                    path.add(request.expressionAttributeNames().get(placeholder));
+                }
+                for (List<String> other : paths) {
+                    if (path.subList(0, Math.min(path.size(), other.size())).equals(other.subList(0, Math.min(path.size(), other.size())))) {
+                        throw validation("Two document paths overlap: " + path + " and " + other);
+                    }
+                }
+                paths.add(path);
+                set(item, path, value(request, item, assignment[1]));
+            }
+        }
+        items.put(id, item);
+        return UpdateItemResponse.builder().build();
+    }
+
+    @Override
+    public String serviceName() {
+        return "dynamodb";
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void failIfRequested() {
+        RuntimeException failure = nextFailure;
+        if (failure != null) {
+            nextFailure = null;
+            throw failure;
+        }
+    }
+
+    // attribute_exists(#n) AND ... AND (attribute_not_exists(#lt) OR #lt <= :lt)
+    private static void checkCondition(String expression, Map<String, String> names, Map<String, AttributeValue> values,
+                                       Map<String, AttributeValue> stored) {
+        if (expression == null) {
+            return;
+        }
+        for (String condition : expression.split(" AND ")) {
+            boolean met;
+            if (condition.startsWith("attribute_exists(")) {
+                String name = names.get(condition.substring("attribute_exists(".length(), condition.length() - 1));
+                met = stored != null && stored.containsKey(name);
+            } else if (condition.equals("(attribute_not_exists(#lt) OR #lt <= :lt)")) {
+                AttributeValue storedValue = stored != null ? stored.get(names.get("#lt")) : null;
+                met = storedValue == null || storedValue.s().compareTo(values.get(":lt").s()) <= 0;
+            } else {
+                throw validation("Unsupported condition: " + condition);
+            }
+            if (!met) {
+                throw ConditionalCheckFailedException.builder().message("The conditional request failed").build();
+            }
+        }
+    }
+
+    private static AttributeValue value(UpdateItemRequest request, Map<String, AttributeValue> item, String expression) {
+        if (expression.startsWith("if_not_exists(")) {
+            String[] arguments = expression.substring("if_not_exists(".length(), expression.length() - 1).split(", ");
+            AttributeValue existing = item.get(request.expressionAttributeNames().get(arguments[0]));
+            return existing != null ? existing : request.expressionAttributeValues().get(arguments[1]);
+        }
+        return request.expressionAttributeValues().get(expression);
+    }
+
+    private static void set(Map<String, AttributeValue> item, List<String> path, AttributeValue value) {
+        if (path.size() == 1) {
+            item.put(path.get(0), value);
+            return;
+        }
+        AttributeValue parent = item.get(path.get(0));
+        if (parent == null || !parent.hasM() || path.size() > 2) {
+            throw validation("The document path provided in the update expression is invalid for update: " + path);
+        }
+        Map<String, AttributeValue> entries = new HashMap<>(parent.m());
+        entries.put(path.get(1), value);
+        item.put(path.get(0), AttributeValue.fromM(entries));
+    }
+
+    // Commas inside if_not_exists(...) do not separate actions
+    private static List<String> splitActions(String expression) {
+        List<String> actions = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == ',' && depth == 0) {
+                actions.add(expression.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        actions.add(expression.substring(start).trim());
+        return actions;
+    }
+
+    private static DynamoDbException validation(String message) {
+        return (DynamoDbException) DynamoDbException.builder().message(message).statusCode(400).build();
+    }
+}
@@ -0,0 +1,194 @@
+package DynamoDB_ETL.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+
+import javax.jms.Destination;
+import javax.jms.JMSConsumer;
+import javax.jms.JMSContext;
+import javax.jms.TextMessage;
+import java.lang.reflect.Proxy;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.springframework.test.util.ReflectionTestUtils.invokeMethod;
+import static org.springframework.test.util.ReflectionTestUtils.setField;
+
+// How a group of messages is settled in client acknowledge mode: one receiveBatch() against a fake session whose
+// messages are all in the consumer already, with a FIXM loader that returns the write result set per message.
+class Main_QueueConsumer_ServiceTest {
+
+    private static final String DESTINATION = "topic/fixm/fpl";
+
+    private final Deque<TextMessage> received = new ArrayDeque<>();
+    private final List<String> settledAs = new CopyOnWriteArrayList<>();
+    private final Map<String, CompletableFuture<Void>> writes = new ConcurrentHashMap<>();
+
+    private SimpleMeterRegistry meterRegistry;
+    private Main_QueueConsumer_Service mainQueueConsumerService;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        ETL_Metrics_Service etlMetricsService = new ETL_Metrics_Service();
+        setField(etlMetricsService, "meterRegistry", meterRegistry);
+
+        ETL_PriorityScheduler_Service scheduler = new ETL_PriorityScheduler_Service();
+        setField(scheduler, "etlMetricsService", etlMetricsService);
+        setField(scheduler, "highDestinations", new String[]{"dep", "met-report"});
+        setField(scheduler, "workerCount", 4);
+        setField(scheduler, "reservedWorkers", 0);
+        setField(scheduler, "highWeight", 4);
+        scheduler.init();
+
+        ETL_Logging_Service etlLoggingService = new ETL_Logging_Service();
+        setField(etlLoggingService, "payloadTopics", new String[0]);
+
+        // Messages without a write result set by the test are stored
+        FIXM_DataLoader_Service fixmDataLoaderService = new FIXM_DataLoader_Service() {
+            @Override
+            public CompletableFuture<Void> processMessageContent(String xmlContent, String logTimestamp, String jmsMessageID, String jmsDestination) {
+                return writes.getOrDefault(jmsMessageID, CompletableFuture.completedFuture(null));
+            }
+        };
+
+        mainQueueConsumerService = new Main_QueueConsumer_Service(fixmDataLoaderService, null, null, etlMetricsService,
+                etlLoggingService, null, null, scheduler, null);
+        setField(mainQueueConsumerService, "ackBatchSize", 10);
+        setField(mainQueueConsumerService, "ackBatchMaxWaitMs", 10L);
+        setField(mainQueueConsumerService, "ackTimeoutMs", 50L);
+        setField(mainQueueConsumerService, "maxDeliveries", 3);
+    }
+
+    @Test
+    void groupIsAcknowledgedOnlyOnceEveryWriteIsStored() throws Exception {
+        CompletableFuture<Void> pendingWrite = new CompletableFuture<>();
+        writes.put("ID:2", pendingWrite);
+        receive("ID:1", 1);
+        receive("ID:2", 1);
+        receive("ID:3", 1);
+
+        CompletableFuture<Void> batch = CompletableFuture.runAsync(this::receiveBatch);
+        Thread.sleep(200);
+        assertEquals(List.of(), settledAs);
+
+        pendingWrite.complete(null);
+        batch.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of("acknowledge"), settledAs);
+    }
+
+    @Test
+    void throttledWriteRecoversTheGroup() {
+        writes.put("ID:2", CompletableFuture.failedFuture(throttled()));
+        receive("ID:1", 1);
+        receive("ID:2", 1);
+
+        receiveBatch();
+
+        assertEquals(List.of("recover"), settledAs);
+        assertNull(meterRegistry.find("etl.messages.dropped").counter());
+    }
+
+    // On its maxDeliveries-th delivery a message that still fails is dropped and the group acknowledged
+    @Test
+    void writeStillFailingOnTheLastDeliveryIsDropped() {
+        writes.put("ID:1", CompletableFuture.failedFuture(throttled()));
+        receive("ID:1", 2);
+        receive("ID:2", 2);
+
+        receiveBatch();
+        assertEquals(List.of("recover"), settledAs);
+
+        receive("ID:1", 3);
+        receive("ID:2", 3);
+
+        receiveBatch();
+        assertEquals(List.of("recover", "acknowledge"), settledAs);
+        assertEquals(1.0, dropped("maxDeliveries"));
+    }
+
+    @Test
+    void rejectedWriteIsDroppedOnTheFirstDelivery() {
+        writes.put("ID:1", CompletableFuture.failedFuture(
+                DynamoDbException.builder().message("One or more parameter values were invalid").statusCode(400).build()));
+        receive("ID:1", 1);
+        receive("ID:2", 1);
+
+        receiveBatch();
+
+        assertEquals(List.of("acknowledge"), settledAs);
+        assertEquals(1.0, dropped("rejected"));
+    }
+
+    private void receiveBatch() {
+        invokeMethod(mainQueueConsumerService, "receiveBatch", session(), consumer(), new Semaphore(64));
+    }
+
+    private double dropped(String reason) {
+        Counter counter = meterRegistry.find("etl.messages.dropped").tag("destination", DESTINATION).tag("reason", reason).counter();
+        return counter != null ? counter.count() : 0;
+    }
+
+    private static Throwable throttled() {
+        return ProvisionedThroughputExceededException.builder().message("Throughput exceeded").statusCode(400).build();
+    }
+
+    // Only what receiveBatch() and the routing to the FIXM loader read
+    private void receive(String messageID, int deliveryCount) {
+        Destination destination = (Destination) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{Destination.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "toString" -> DESTINATION;
+                    case "hashCode" -> DESTINATION.hashCode();
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+        received.add((TextMessage) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{TextMessage.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "getText" -> "<fx:gufi>" + messageID + "</fx:gufi>";
+                    case "getJMSMessageID" -> messageID;
+                    case "getJMSDestination" -> destination;
+                    case "getJMSTimestamp" -> 0L;
+                    case "propertyExists" -> "JMSXDeliveryCount".equals(args[0]);
+                    case "getIntProperty" -> deliveryCount;
+                    case "getStringProperty" -> "JMSXDeliveryCount".equals(args[0]) ? String.valueOf(deliveryCount) : null;
+                    case "getPropertyNames" -> Collections.enumeration(List.of());
+                    case "toString" -> messageID;
+                    case "hashCode" -> messageID.hashCode();
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    private JMSConsumer consumer() {
+        return (JMSConsumer) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JMSConsumer.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "receive", "receiveNoWait" -> received.poll();
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private JMSContext session() {
+        return (JMSContext) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{JMSContext.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "acknowledge", "recover" -> {
+                        settledAs.add(method.getName());
+                        yield null;
+                    }
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
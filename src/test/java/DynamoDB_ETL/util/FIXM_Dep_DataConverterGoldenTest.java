@@ -0,0 +1,53 @@
+package DynamoDB_ETL.util;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// DOM and StAX departure converters, from a String and from bytes, against the recorded output of the original
+// DOM converter: the corpus departure plus mutated documents (elements missing, emptied, repeated or out of
+// place) that each give a differently shaped result. Flight plans are in FIXM_Fpl_DataConverterGoldenTest.
+class FIXM_Dep_DataConverterGoldenTest {
+
+    // As the loader passes it in, to be stored with the converted fields
+    private static final Map<String, AttributeValue> METADATA = Map.of(
+            "logTimestamp", AttributeValue.fromS(Golden.LOG_TIMESTAMP),
+            "messageID", AttributeValue.fromS("ID:golden-1"),
+            "messageDestination", AttributeValue.fromS("topic/fixm/dep"));
+
+    @Test
+    void convertersMatchGoldenOutput() throws Exception {
+        int documents = 0;
+        for (Path xmlFile : Golden.files("fixm", ".xml")) {
+            String name = xmlFile.getFileName().toString();
+            if (!name.startsWith("fixm-dep")) {
+                continue;
+            }
+            String xml = Golden.read(xmlFile);
+            String expected = Golden.read(xmlFile.resolveSibling(name.replace(".xml", ".json")));
+            Map<String, AttributeValue> expectedItem = Golden.itemOf(expected);
+            byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+            Map<String, AttributeValue> expectedWithMetadata = new HashMap<>(expectedItem);
+            expectedWithMetadata.putAll(METADATA);
+
+            assertEquals(expected, FIXM_Dep_DataConverter.convertFIXMDepXmlToJson(xml), name + " dom");
+            assertEquals(expected, FIXM_Dep_DataConverter.convertFIXMDepXmlToJsonStax(xml), name + " stax");
+            assertEquals(expectedItem, FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(xml), name + " dom item");
+            assertEquals(expectedItem, FIXM_Dep_DataConverter.convertFIXMDepXmlToItemStax(xml), name + " stax item");
+            assertEquals(expectedItem, FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(new ByteArrayInputStream(bytes)), name + " dom bytes");
+            assertEquals(expectedItem, FIXM_Dep_DataConverter.convertFIXMDepXmlToItemStax(new ByteArrayInputStream(bytes)), name + " stax bytes");
+            assertEquals(expectedWithMetadata, FIXM_Dep_DataConverter.convertFIXMDepXmlToItem(new ByteArrayInputStream(bytes), METADATA), name + " dom metadata");
+            assertEquals(expectedWithMetadata, FIXM_Dep_DataConverter.convertFIXMDepXmlToItemStax(new ByteArrayInputStream(bytes), METADATA), name + " stax metadata");
+            documents++;
+        }
+        assertFalse(documents == 0, "no golden FIXM departures found");
+    }
+}
@@ -0,0 +1,106 @@
+package DynamoDB_ETL.util;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.StringReader;
+import java.util.Map;
+
+import static DynamoDB_ETL.util.FIXM_FieldMapping.attribute;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.each;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.group;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.keyed;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.object;
+import static DynamoDB_ETL.util.FIXM_FieldMapping.text;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+// Lookup semantics of the compiled mappings on small documents, as JSON and as an item
+class FIXM_FieldMappingTest {
+
+    private static final Map<String, String> NAMESPACE = Map.of("fx", "urn:fx");
+
+    private static final String FLIGHT = """
+            <fx:flight xmlns:fx="urn:fx" flightType="S">
+              <fx:gufi>g-1</fx:gufi>
+              <fx:route>
+                <fx:element seqNum="1"><fx:point designator="ALFA"/></fx:element>
+                <fx:element seqNum="2"><fx:point designator="BRAVO"/><fx:point designator="CHARLIE"/></fx:element>
+                <fx:element seqNum="3"/>
+              </fx:route>
+              <fx:point designator="OUTSIDE"/>
+              <remark text="first"/>
+              <remark text="second"/>
+            </fx:flight>""";
+
+    @Test
+    void lookupsTakeTheFirstDescendantOfTheirScope() throws Exception {
+        FIXM_FieldMapping mapping = FIXM_FieldMapping.forDocumentElement(NAMESPACE,
+                attribute("flightType", "flightType"),
+                text("gufi", "fx:gufi"),
+                attribute("firstPoint", "fx:point", "designator"),
+                attribute("remark", "remark", "text"),
+                attribute("missing", "fx:missing", "designator"),
+                object("route", "fx:route",
+                        attribute("firstPoint", "fx:point", "designator")));
+
+        assertEquals("{\"flightType\":\"S\",\"gufi\":\"g-1\",\"firstPoint\":\"ALFA\",\"remark\":\"first\",\"missing\":null,"
+                + "\"route\":{\"firstPoint\":\"ALFA\"}}", mapping.map(new StringReader(FLIGHT)).toString());
+    }
+
+    @Test
+    void keyedEntriesAreCollectedPerElement() throws Exception {
+        FIXM_FieldMapping mapping = FIXM_FieldMapping.forDocumentElement(NAMESPACE,
+                keyed("element", "fx:element", "seqNum",
+                        attribute("point", "fx:point", "designator").omitIfNull()).omitEmpty(),
+                keyed("lastPoint", "fx:element", "seqNum",
+                        each("fx:point", attribute("point", "designator"))));
+
+        JsonObject flight = mapping.map(new StringReader(FLIGHT));
+
+        assertEquals("{\"1\":{\"point\":\"ALFA\"},\"2\":{\"point\":\"BRAVO\"}}", flight.get("element").toString());
+        assertEquals("{\"1\":{\"point\":\"ALFA\"},\"2\":{\"point\":\"CHARLIE\"},\"3\":{}}", flight.get("lastPoint").toString());
+    }
+
+    @Test
+    void missingElementsGiveDefaultsOrNothing() throws Exception {
+        FIXM_FieldMapping mapping = FIXM_FieldMapping.forDocument(NAMESPACE,
+                text("region", "fx:region").orElse("unknown"),
+                text("omitted", "fx:region").omitIfNull(),
+                object("absent", "fx:absent", text("value")),
+                object("empty", "fx:absent", text("value")).always(),
+                group("grouped", text("gufi", "fx:gufi")));
+
+        assertEquals("{\"region\":\"unknown\",\"empty\":{},\"grouped\":{\"gufi\":\"g-1\"}}",
+                mapping.map(new StringReader(FLIGHT)).toString());
+    }
+
+    // The item is written in the same pass: objects as M, values as S, starting from the given attributes
+    @Test
+    void itemsMatchTheJson() throws Exception {
+        FIXM_FieldMapping mapping = FIXM_FieldMapping.forDocumentElement(NAMESPACE,
+                text("gufi", "fx:gufi"),
+                attribute("missing", "fx:missing", "designator"),
+                keyed("element", "fx:element", "seqNum",
+                        attribute("point", "fx:point", "designator").omitIfNull()).omitEmpty());
+        Map<String, AttributeValue> metadata = Map.of("messageID", AttributeValue.fromS("ID:1"));
+
+        Map<String, AttributeValue> keepingNulls = mapping.mapToItem(new StringReader(FLIGHT), true, metadata);
+        Map<String, AttributeValue> droppingNulls = mapping.mapToItem(new StringReader(FLIGHT), false, metadata);
+
+        Map<String, AttributeValue> fromJson = DynamoDB_AttributeValueConverter.fromJsonObject(mapping.map(new StringReader(FLIGHT)), true);
+        fromJson.putAll(metadata);
+        assertEquals(fromJson, keepingNulls);
+        assertEquals("null", keepingNulls.get("missing").s());
+        fromJson.remove("missing");
+        assertEquals(fromJson, droppingNulls);
+        assertEquals("BRAVO", droppingNulls.get("element").m().get("2").m().get("point").s());
+    }
+
+    @Test
+    void unknownPrefixIsRejectedWhenCompiled() {
+        assertThrows(IllegalArgumentException.class,
+                () -> FIXM_FieldMapping.forDocument(NAMESPACE, text("gufi", "fb:gufi")));
+    }
+}
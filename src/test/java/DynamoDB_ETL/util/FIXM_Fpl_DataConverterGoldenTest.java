@@ -0,0 +1,53 @@
+package DynamoDB_ETL.util;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// DOM and StAX flight plan converters, from a String and from bytes, against the recorded output of the original
+// DOM converter: the corpus flight plan plus mutated documents (a default namespace, elements missing, emptied,
+// repeated or out of place) that each give a differently shaped result
+class FIXM_Fpl_DataConverterGoldenTest {
+
+    // As the loader passes it in, to be stored with the converted fields
+    private static final Map<String, AttributeValue> METADATA = Map.of(
+            "logTimestamp", AttributeValue.fromS(Golden.LOG_TIMESTAMP),
+            "messageID", AttributeValue.fromS("ID:golden-1"),
+            "messageDestination", AttributeValue.fromS("topic/fixm/fpl"));
+
+    @Test
+    void convertersMatchGoldenOutput() throws Exception {
+        int documents = 0;
+        for (Path xmlFile : Golden.files("fixm", ".xml")) {
+            String name = xmlFile.getFileName().toString();
+            if (!name.startsWith("fixm-fpl")) {
+                continue;
+            }
+            String xml = Golden.read(xmlFile);
+            String expected = Golden.read(xmlFile.resolveSibling(name.replace(".xml", ".json")));
+            Map<String, AttributeValue> expectedItem = Golden.itemOf(expected);
+            byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+            Map<String, AttributeValue> expectedWithMetadata = new HashMap<>(expectedItem);
+            expectedWithMetadata.putAll(METADATA);
+
+            assertEquals(expected, FIXM_Fpl_DataConverter.convertFIXMFplXmlToJson(xml), name + " dom");
+            assertEquals(expected, FIXM_Fpl_DataConverter.convertFIXMFplXmlToJsonStax(xml), name + " stax");
+            assertEquals(expectedItem, FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(xml), name + " dom item");
+            assertEquals(expectedItem, FIXM_Fpl_DataConverter.convertFIXMFplXmlToItemStax(xml), name + " stax item");
+            assertEquals(expectedItem, FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(new ByteArrayInputStream(bytes)), name + " dom bytes");
+            assertEquals(expectedItem, FIXM_Fpl_DataConverter.convertFIXMFplXmlToItemStax(new ByteArrayInputStream(bytes)), name + " stax bytes");
+            assertEquals(expectedWithMetadata, FIXM_Fpl_DataConverter.convertFIXMFplXmlToItem(new ByteArrayInputStream(bytes), METADATA), name + " dom metadata");
+            assertEquals(expectedWithMetadata, FIXM_Fpl_DataConverter.convertFIXMFplXmlToItemStax(new ByteArrayInputStream(bytes), METADATA), name + " stax metadata");
+            documents++;
+        }
+        assertFalse(documents == 0, "no golden FIXM flight plans found");
+    }
+}
@@ -0,0 +1,35 @@
+package DynamoDB_ETL.util;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// The gufi found in the raw text is the one the converters extract, on the golden FIXM documents
+class FIXM_GufiScannerTest {
+
+    @Test
+    void scannerFindsTheConvertersGufi() throws Exception {
+        for (Path xmlFile : Golden.files("fixm", ".xml")) {
+            String name = xmlFile.getFileName().toString();
+            String xml = Golden.read(xmlFile);
+            AttributeValue gufi = Golden.itemOf(Golden.read(xmlFile.resolveSibling(name.replace(".xml", ".json")))).get("gufi");
+            String expected = gufi == null || gufi.s().isBlank() || "null".equals(gufi.s()) ? null : gufi.s().trim();
+            byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+
+            assertEquals(expected, FIXM_GufiScanner.gufi(xml), name);
+            assertEquals(expected, FIXM_GufiScanner.gufi(bytes, bytes.length), name + " bytes");
+        }
+    }
+
+    @Test
+    void gufiOriginatorAndClosingTagsAreNotTheGufi() {
+        assertNull(FIXM_GufiScanner.gufi("<fx:flight><fx:gufiOriginator name=\"CAAS\"/></fx:flight>"));
+        assertNull(FIXM_GufiScanner.gufi("<flight>gufi</gufi><gufi/></flight>"));
+        assertEquals("abc", FIXM_GufiScanner.gufi("<flight><gufi codeSpace=\"urn:uuid\"> abc </gufi></flight>"));
+    }
+}
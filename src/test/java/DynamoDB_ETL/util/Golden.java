@@ -0,0 +1,64 @@
+package DynamoDB_ETL.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Golden outputs under src/test/resources/golden, recorded with the original DOM / Gson / regex converters
+// before they were replaced. Items are derived from the recorded JSON the way the loaders used to build them:
+// read with Jackson, objects to M, arrays to L and every scalar to S via asText().
+class Golden {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static final String LOG_TIMESTAMP = "2024-10-18T15:30:01.000Z";
+
+    // Files in golden/<directory> whose name ends with the suffix, in name order
+    static List<Path> files(String directory, String suffix) throws IOException, URISyntaxException {
+        Path root = Paths.get(Golden.class.getResource("/golden/" + directory).toURI());
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(suffix)).sorted().toList();
+        }
+    }
+
+    static String read(Path file) throws IOException {
+        return Files.readString(file);
+    }
+
+    static JsonNode readTree(String json) throws IOException {
+        return MAPPER.readTree(json);
+    }
+
+    static Map<String, AttributeValue> itemOf(String json) throws IOException {
+        return json != null ? item(MAPPER.readTree(json)) : null;
+    }
+
+    private static Map<String, AttributeValue> item(JsonNode object) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        object.fields().forEachRemaining(field -> item.put(field.getKey(), value(field.getValue())));
+        return item;
+    }
+
+    private static AttributeValue value(JsonNode node) {
+        if (node.isObject()) {
+            return AttributeValue.builder().m(item(node)).build();
+        }
+        if (node.isArray()) {
+            List<AttributeValue> values = new ArrayList<>();
+            node.forEach(element -> values.add(value(element)));
+            return AttributeValue.builder().l(values).build();
+        }
+        return AttributeValue.builder().s(node.asText()).build();
+    }
+}
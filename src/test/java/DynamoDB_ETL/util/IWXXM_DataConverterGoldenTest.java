@@ -0,0 +1,67 @@
+package DynamoDB_ETL.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.gson.JsonParser;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// Envelope and Base64 entry points, as JSON, item and compressed item, against the recorded output of the
+// original Gson converter: the corpus METAR, sample bulletins and the edge cases (a repeated name moving to its
+// second occurrence, text replacing "value", elements named like an attribute or the text, mixed content,
+// trailing content after the root, and characters that need JSON escaping) and the Base64 payloads the streaming
+// decoder has to treat like Base64.getDecoder() did (unpadded, decoding to truncated XML, empty)
+class IWXXM_DataConverterGoldenTest {
+
+    @Test
+    void convertersMatchGoldenOutput() throws Exception {
+        int documents = 0;
+        for (Path expectedFile : Golden.files("iwxxm", ".expected.json")) {
+            String name = expectedFile.getFileName().toString().replace(".expected.json", "");
+            String envelope = Golden.read(expectedFile.resolveSibling(name + ".json"));
+            String expected = Golden.read(expectedFile);
+            Map<String, AttributeValue> expectedItem = Golden.itemOf(expected);
+
+            JsonNode envelopeNode = Golden.readTree(envelope);
+            String id = envelopeNode.get("id").asText();
+            String base64 = envelopeNode.path("properties").path("content").path("value").asText();
+
+            assertEquals(expected, IWXXM_DataConverter.convertIWXXMXmlToJson(envelope, id, Golden.LOG_TIMESTAMP), name);
+            assertEquals(expected, IWXXM_DataConverter.convertIWXXMBase64ToJson(base64, id, Golden.LOG_TIMESTAMP), name + " base64");
+            assertEquals(expectedItem, IWXXM_DataConverter.convertIWXXMXmlToItem(envelope, id, Golden.LOG_TIMESTAMP), name + " item");
+            assertEquals(expectedItem, IWXXM_DataConverter.convertIWXXMBase64ToItem(base64, id, Golden.LOG_TIMESTAMP), name + " base64 item");
+            assertEquals(JsonParser.parseString(expected).getAsJsonObject().get("decodedData"),
+                    IWXXM_DataConverter.readDecodedData(IWXXM_DataConverter.convertIWXXMBase64ToCompressedItem(base64, id, Golden.LOG_TIMESTAMP)),
+                    name + " compressed item");
+            documents++;
+        }
+        assertFalse(documents == 0, "no golden IWXXM documents found");
+    }
+
+    // Payloads the original Base64.getDecoder().decode rejected, so the whole message gave null
+    @Test
+    void undecodableBase64GivesNoOutput() throws Exception {
+        JsonNode envelopeNode = Golden.readTree(Golden.read(Golden.files("iwxxm", "iwxxm-metar.json").get(0)));
+        String base64 = envelopeNode.path("properties").path("content").path("value").asText();
+        Map<String, String> payloads = Map.of(
+                "invalid character", base64.substring(0, 40) + "!" + base64.substring(41),
+                "line breaks", base64.substring(0, 76) + "\r\n" + base64.substring(76),
+                "dangling character", base64 + "A",
+                "padding in the middle", base64.substring(0, 8) + "==" + base64.substring(8));
+
+        for (Map.Entry<String, String> payload : payloads.entrySet()) {
+            String envelope = "{\"properties\": {\"content\": {\"value\": \""
+                    + payload.getValue().replace("\r", "\\r").replace("\n", "\\n") + "\"}}}";
+            assertNull(IWXXM_DataConverter.convertIWXXMXmlToJson(envelope, "b", Golden.LOG_TIMESTAMP), payload.getKey());
+            assertNull(IWXXM_DataConverter.convertIWXXMBase64ToJson(payload.getValue(), "b", Golden.LOG_TIMESTAMP), payload.getKey() + " base64");
+            assertNull(IWXXM_DataConverter.convertIWXXMBase64ToItem(payload.getValue(), "b", Golden.LOG_TIMESTAMP), payload.getKey() + " base64 item");
+            assertNull(IWXXM_DataConverter.convertIWXXMBase64ToCompressedItem(payload.getValue(), "b", Golden.LOG_TIMESTAMP), payload.getKey() + " compressed item");
+        }
+    }
+}
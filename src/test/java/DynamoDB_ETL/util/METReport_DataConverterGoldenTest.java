@@ -0,0 +1,33 @@
+package DynamoDB_ETL.util;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+// Keyword scan against the recorded output of the original String.split / regex converter: the corpus report,
+// keyword edge cases (empty, repeated, glued or missing sections) and mutated reports, including ones the
+// converter fails on (expected null), plus the corpus report laid out differently (line breaks, tabs, extra
+// spaces, lower case, a keyword inside a longer word) for the scan's own token boundaries
+class METReport_DataConverterGoldenTest {
+
+    @Test
+    void converterMatchesGoldenOutput() throws Exception {
+        int reports = 0;
+        for (Path casesFile : Golden.files("met", "-reports.json")) {
+            for (JsonNode reportCase : Golden.readTree(Golden.read(casesFile))) {
+                String id = reportCase.get("id").asText();
+                String metarData = reportCase.get("metarData").asText();
+                String expected = reportCase.get("expected").isNull() ? null : reportCase.get("expected").asText();
+
+                assertEquals(expected, METReport_DataConverter.convertMETDataToJson(id, metarData), id + " [" + metarData + "]");
+                assertEquals(Golden.itemOf(expected), METReport_DataConverter.convertMETDataToItem(id, metarData), id + " item");
+                reports++;
+            }
+        }
+        assertFalse(reports == 0, "no golden MET reports found");
+    }
+}